@@ -4,12 +4,20 @@ import com.aireviewer.model.AIReviewComment;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
 
+import java.util.Set;
+
 /**
  * Marker interface for all agents participating in the review pipeline.
  *
  * Each agent is responsible for analysing a specific aspect of the merge request
  * and mutating the {@link AIReviewComment} accordingly. Agents should be
  * stateless and thread-safe.
+ *
+ * Agents that build on the output of another agent declare it through
+ * {@link #consumes()}; the producing agent lists the same name in
+ * {@link #produces()}. The aggregator schedules agents as a dependency graph
+ * based on these declarations, so an agent never has to rely on bean order.
+ * Well-known names are defined in {@link AgentArtifacts}.
  */
 @FunctionalInterface
 public interface Agent {
@@ -24,4 +32,18 @@ public interface Agent {
      * @param comment the in-progress review comment to modify
      */
     void analyse(MergeRequestContext mrContext, JiraContext jiraContext, AIReviewComment comment);
-}
\ No newline at end of file
+
+    /**
+     * @return names of the artifacts this agent writes to the review comment
+     */
+    default Set<String> produces() {
+        return Set.of();
+    }
+
+    /**
+     * @return names of the artifacts that must be available before this agent runs
+     */
+    default Set<String> consumes() {
+        return Set.of();
+    }
+}
@@ -0,0 +1,13 @@
+package com.aireviewer.agent;
+
+/**
+ * Names of the artifacts agents exchange through the review comment. Used in
+ * {@link Agent#produces()} and {@link Agent#consumes()} to declare the
+ * dependencies between agents.
+ */
+public final class AgentArtifacts {
+    /** The Jira context and the initial "done well" remark set by {@link AnalystAgent}. */
+    public static final String JIRA_SUMMARY = "jira-summary";
+
+    private AgentArtifacts() {}
+}
@@ -5,6 +5,8 @@ import com.aireviewer.model.AIReviewComment;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
 
+import java.util.Set;
+
 /*
   The AnalystAgent is responsible for synthesising the Jira issue into a concise
   summary for the other agents. In this simple MVP implementation it only
@@ -27,4 +29,9 @@ public class AnalystAgent implements Agent {
             comment.setDoneWell(Messages.get("analyst.doneWell.noJira"));
         }
     }
+
+    @Override
+    public Set<String> produces() {
+        return Set.of(AgentArtifacts.JIRA_SUMMARY);
+    }
 }
\ No newline at end of file
@@ -5,8 +5,7 @@ import com.aireviewer.model.AIReviewComment;
 import com.aireviewer.model.AIReviewIssue;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
-
-import java.util.List;
+import com.aireviewer.rules.PathRules;
 
 /*
   The ArchitectureAgent inspects the merge request for high‑level architectural
@@ -20,18 +19,13 @@ import org.springframework.stereotype.Component;
 public class ArchitectureAgent implements Agent {
     @Override
     public void analyse(MergeRequestContext mrContext, JiraContext jiraContext, AIReviewComment comment) {
-        List<String> files = mrContext.getChangedFiles();
-        if (files != null) {
-            for (String file : files) {
-                String lower = file.toLowerCase();
-                // Warn if a use of a technology flagged as "deprecated" appears in file names
-                if (lower.contains("legacy") || lower.contains("deprecated")) {
-                    comment.addIssue(new AIReviewIssue(
-                            Messages.get("arch.deprecated.title", file),
-                            Messages.get("arch.deprecated.action"),
-                            Messages.get("agent.architecture")));
-                }
-            }
+        // Warn if a use of a technology flagged as "deprecated" appears in file names
+        for (String file : mrContext.getPathMatches().filesMatching(PathRules.ARCH_DEPRECATED)) {
+            comment.addIssue(new AIReviewIssue(
+                    Messages.get("arch.deprecated.title", file),
+                    Messages.get("arch.deprecated.action"),
+                    Messages.get("agent.architecture"),
+                    file));
         }
     }
 }
\ No newline at end of file
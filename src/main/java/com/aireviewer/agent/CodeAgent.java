@@ -3,10 +3,11 @@ package com.aireviewer.agent;
 import com.aireviewer.i18n.Messages;
 import com.aireviewer.model.AIReviewComment;
 import com.aireviewer.model.AIReviewIssue;
+import com.aireviewer.model.DiffModel;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
-
-import java.util.List;
+import com.aireviewer.rules.PathRules;
+import com.aireviewer.rules.RuleSet;
 
 /*
   CodeAgent performs static heuristics on the changed code. It checks for simple patterns
@@ -20,15 +21,16 @@ public class CodeAgent implements Agent {
     @Override
     public void analyse(MergeRequestContext mrContext, JiraContext jiraContext, AIReviewComment comment) {
         // Very basic heuristics: if the diff is too large or too small we comment accordingly.
-        String diff = mrContext.getDiff();
+        RuleSet rules = mrContext.getRuleSet();
+        DiffModel diff = mrContext.getDiffModel();
         if (diff != null) {
-            int lines = diff.split("\n").length;
-            if (lines > 300) {
+            int lines = diff.getLineCount();
+            if (lines > rules.getLargeDiffLines()) {
                 comment.addIssue(new AIReviewIssue(
-                        Messages.get("code.largeDiff.title"),
+                        Messages.get("code.largeDiff.title", String.valueOf(rules.getLargeDiffLines())),
                         Messages.get("code.largeDiff.action"),
                         Messages.get("agent.code")));
-            } else if (lines < 5) {
+            } else if (lines < rules.getSmallDiffLines()) {
                 comment.addIssue(new AIReviewIssue(
                         Messages.get("code.smallDiff.title"),
                         Messages.get("code.smallDiff.action"),
@@ -36,14 +38,12 @@ public class CodeAgent implements Agent {
             }
         }
         // Check file names for common anti‑patterns
-        List<String> files = mrContext.getChangedFiles();
-        if (files != null) {
-            files.stream()
-                    .filter(f -> f.toLowerCase().contains("util") || f.toLowerCase().contains("helper"))
-                    .forEach(f -> comment.addIssue(new AIReviewIssue(
-                            Messages.get("code.utilFile.title", f),
-                            Messages.get("code.utilFile.action"),
-                            Messages.get("agent.code"))));
+        for (String f : mrContext.getPathMatches().filesMatching(PathRules.CODE_UTIL)) {
+            comment.addIssue(new AIReviewIssue(
+                    Messages.get("code.utilFile.title", f),
+                    Messages.get("code.utilFile.action"),
+                    Messages.get("agent.code"),
+                    f));
         }
     }
 }
\ No newline at end of file
@@ -2,10 +2,11 @@ package com.aireviewer.agent;
 
 import com.aireviewer.i18n.Messages;
 import com.aireviewer.model.AIReviewComment;
+import com.aireviewer.model.DiffModel;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
-
-import java.util.List;
+import com.aireviewer.rules.PathMatches;
+import com.aireviewer.rules.PathRules;
 
 /*
   The TestAgent suggests where additional unit tests may be needed. In this
@@ -19,23 +20,21 @@ import org.springframework.stereotype.Component;
 public class TestAgent implements Agent {
     @Override
     public void analyse(MergeRequestContext mrContext, JiraContext jiraContext, AIReviewComment comment) {
-        List<String> files = mrContext.getChangedFiles();
-        if (files != null) {
-            for (String file : files) {
-                // Suggest tests for new or modified service classes
-                if (file.toLowerCase().contains("service")) {
-                    comment.addTestAdvice(Messages.get("test.advice.service", file));
-                }
-                // Suggest tests for controller changes
-                if (file.toLowerCase().contains("controller")) {
-                    comment.addTestAdvice(Messages.get("test.advice.controller", file));
-                }
+        PathMatches matches = mrContext.getPathMatches();
+        for (int i = 0; i < matches.size(); i++) {
+            // Suggest tests for new or modified service classes
+            if (matches.matches(i, PathRules.TEST_SERVICE)) {
+                comment.addTestAdvice(Messages.get("test.advice.service", matches.path(i)), matches.path(i));
+            }
+            // Suggest tests for controller changes
+            if (matches.matches(i, PathRules.TEST_CONTROLLER)) {
+                comment.addTestAdvice(Messages.get("test.advice.controller", matches.path(i)), matches.path(i));
             }
         }
         // Additionally, if no advice has been added yet and diff is long, suggest generic testing
-        if (comment.getTestAdvice().isEmpty() && mrContext.getDiff() != null) {
-            int lines = mrContext.getDiff().split("\n").length;
-            if (lines > 50) {
+        DiffModel diff = mrContext.getDiffModel();
+        if (comment.getTestAdvice().isEmpty() && diff != null) {
+            if (diff.getLineCount() > mrContext.getRuleSet().getLongDiffLines()) {
                 comment.addTestAdvice(Messages.get("test.advice.longDiff"));
             }
         }
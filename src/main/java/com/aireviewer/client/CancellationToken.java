@@ -0,0 +1,123 @@
+package com.aireviewer.client;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Lets a review be abandoned once its result is no longer wanted, e.g.
+ * because a newer push to the merge request is being reviewed. The token of
+ * the current review is bound to the thread like the rate limit priority (see
+ * {@link #callWith(CancellationToken, Supplier)}); the outbound steps of
+ * {@link HttpTransport} stop sending, waiting for and retrying calls of a
+ * cancelled review, and the review itself checks it between its steps.
+ *
+ * <p>{@link #runUnlessCancelled(Runnable)} and {@link #cancel()} exclude each
+ * other, so an action guarded by it either completes before the token is
+ * cancelled or does not run at all.</p>
+ */
+public final class CancellationToken {
+    /** The token of work that is never cancelled. */
+    public static final CancellationToken NONE = new CancellationToken();
+    private static final ThreadLocal<CancellationToken> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+
+    /**
+     * Run {@code call} with this token bound to the current thread.
+     *
+     * @param token the token
+     * @param call the work to run
+     * @return the result of {@code call}
+     */
+    public static <T> T callWith(CancellationToken token, Supplier<T> call) {
+        CancellationToken previous = CURRENT.get();
+        CURRENT.set(token);
+        try {
+            return call.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return the token bound to the current thread, {@link #NONE} if there is none
+     */
+    public static CancellationToken current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Cancel the work; waits for a running {@link #runUnlessCancelled(Runnable)}.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+        lock.lock();
+        try {
+            cancelled.countDown();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.getCount() == 0;
+    }
+
+    /**
+     * @throws CancellationException if the token has been cancelled
+     */
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("Review cancelled");
+        }
+    }
+
+    /**
+     * Run {@code action} unless the token has been cancelled; {@link #cancel()}
+     * waits until it has finished.
+     *
+     * @param action the action
+     * @throws CancellationException if the token has been cancelled
+     */
+    public void runUnlessCancelled(Runnable action) {
+        lock.lock();
+        try {
+            throwIfCancelled();
+            action.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sleep for up to {@code nanos}, waking up early on cancellation.
+     *
+     * @throws InterruptedIOException if the token was cancelled or the thread interrupted
+     */
+    void sleep(long nanos) throws InterruptedIOException {
+        try {
+            if (cancelled.await(nanos, TimeUnit.NANOSECONDS)) {
+                throw new InterruptedIOException("Review cancelled");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    /**
+     * @throws InterruptedIOException if the token has been cancelled
+     */
+    void checkCall() throws InterruptedIOException {
+        if (isCancelled()) {
+            throw new InterruptedIOException("Review cancelled");
+        }
+    }
+}
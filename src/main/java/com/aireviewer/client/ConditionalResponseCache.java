@@ -0,0 +1,135 @@
+package com.aireviewer.client;
+
+import com.aireviewer.metrics.StatsSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Validator cache for GitLab reads. For every URL that answered with an
+ * {@code ETag} the tag is kept together with the already parsed result, so
+ * the next read of the same URL can be sent as a conditional request and a
+ * {@code 304 Not Modified} answer is served from here without downloading or
+ * parsing the body again. This is what happens for label-only updates and
+ * re-delivered webhooks, where the merge request diff did not change.
+ *
+ * The cache is bounded by the size of the original response bodies
+ * ({@code gitlab.etag-cache.max-bytes}) and evicts the least recently used
+ * entries. Setting the size to 0 disables conditional requests.
+ */
+@Component
+public class ConditionalResponseCache implements StatsSource {
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final AtomicLong conditionalRequests = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConditionalResponseCache(@Value("${gitlab.etag-cache.max-bytes:16777216}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the validator and parsed result stored for a URL. A non-null
+     * result means the caller is about to send a conditional request.
+     *
+     * @param url the request URL
+     * @return the cached entry or {@code null}
+     */
+    Entry get(String url) {
+        if (maxBytes <= 0) {
+            return null;
+        }
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(url);
+        } finally {
+            lock.unlock();
+        }
+        if (entry != null) {
+            conditionalRequests.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Remember the parsed result of a full response. A response without an
+     * {@code ETag} drops whatever was stored for the URL.
+     *
+     * @param url the request URL
+     * @param etag the {@code ETag} header of the response, may be {@code null}
+     * @param value the parsed result, must not be modified afterwards
+     * @param size the size of the response body in bytes
+     */
+    void put(String url, String etag, Object value, long size) {
+        if (maxBytes <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry previous = etag == null || size > maxBytes
+                    ? entries.remove(url)
+                    : entries.put(url, new Entry(etag, value, size));
+            if (previous != null) {
+                bytes -= previous.size;
+            }
+            if (etag == null || size > maxBytes) {
+                return;
+            }
+            bytes += size;
+            Iterator<Entry> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().size;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record that GitLab confirmed a cached entry with {@code 304 Not Modified}.
+     *
+     * @param entry the entry that is reused
+     */
+    void recordNotModified(Entry entry) {
+        notModified.incrementAndGet();
+        bytesSaved.addAndGet(entry.size);
+    }
+
+    @Override
+    public String statsName() {
+        return "gitlabConditional";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("size", entries.size());
+            stats.put("bytes", bytes);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("conditionalRequests", conditionalRequests.get());
+        stats.put("notModified", notModified.get());
+        stats.put("bytesSaved", bytesSaved.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    record Entry(String etag, Object value, long size) {
+    }
+}
@@ -1,20 +1,40 @@
 package com.aireviewer.client;
 
+import com.aireviewer.model.CompareResult;
+import com.aireviewer.model.DiffModel;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 /**
  * GitLab client responsible for interacting with the GitLab REST API. The
@@ -26,12 +46,31 @@ import java.util.Map;
 @Component
 public class GitLabClient {
     private static final Logger log = LoggerFactory.getLogger(GitLabClient.class);
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final int NOTE_BUFFER_CHARS = 8192;
+    private final RestTemplate restTemplate;
+    private final ConditionalResponseCache responseCache;
 
     @Value("${gitlab.base-url:}")
     private String baseUrl;
     @Value("${gitlab.api-token:}")
     private String apiToken;
+    @Value("${gitlab.diff-page-size:20}")
+    private int diffPageSize = 20;
+
+    @Autowired
+    public GitLabClient(HttpTransport transport, ConditionalResponseCache responseCache) {
+        this(transport.newRestTemplate(), responseCache);
+    }
+
+    GitLabClient(RestTemplate restTemplate) {
+        this(restTemplate, new ConditionalResponseCache(0));
+    }
+
+    GitLabClient(RestTemplate restTemplate, ConditionalResponseCache responseCache) {
+        this.restTemplate = restTemplate;
+        this.responseCache = responseCache;
+    }
 
     /**
      * Post a Markdown comment on a merge request. If the call fails, the
@@ -40,60 +79,527 @@ public class GitLabClient {
      * @param projectId the ID of the project
      * @param mergeRequestIid the internal ID of the merge request
      * @param body the markdown formatted comment
+     * @return the ID of the created note, or {@code null} if it was not created
      */
-    public void postMergeRequestComment(Long projectId, Long mergeRequestIid, String body) {
+    public Long postMergeRequestComment(Long projectId, Long mergeRequestIid, String body) {
+        return postMergeRequestComment(projectId, mergeRequestIid, out -> out.append(body));
+    }
+
+    /**
+     * Like {@link #postMergeRequestComment(Long, Long, String)}, but the
+     * Markdown is written by {@code body} straight into the JSON request body.
+     *
+     * @param projectId the ID of the project
+     * @param mergeRequestIid the internal ID of the merge request
+     * @param body writes the markdown formatted comment
+     * @return the ID of the created note, or {@code null} if it was not created
+     */
+    public Long postMergeRequestComment(Long projectId, Long mergeRequestIid, NoteBody body) {
         if (baseUrl == null || baseUrl.isBlank()) {
             log.info("GitLabClient not configured; skipping comment posting");
-            return;
-        }
-        String url = UriComponentsBuilder.fromHttpUrl(baseUrl)
-                .pathSegment("api", "v4", "projects", projectId.toString(), "merge_requests", mergeRequestIid.toString(), "notes")
-                .toUriString();
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-        headers.set("PRIVATE-TOKEN", apiToken);
-        Map<String, String> payload = Map.of("body", body);
+            return null;
+        }
+        URI uri = notesUrl(projectId, mergeRequestIid).build().toUri();
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(payload, headers), String.class);
-            log.info("Posted comment to MR {}: status {}", mergeRequestIid, response.getStatusCode());
+            return restTemplate.execute(uri, HttpMethod.POST, noteRequest(body), response -> {
+                log.info("Posted comment to MR {}: status {}", mergeRequestIid, response.getStatusCode());
+                return readId(response.getBody());
+            });
         } catch (Exception ex) {
             log.warn("Failed to post comment to GitLab MR {}: {}", mergeRequestIid, ex.getMessage());
+            return null;
         }
     }
 
     /**
-     * Retrieve the list of changed file paths for a merge request. Some fields
-     * are truncated for brevity. In case of failure an empty list is returned.
-     * This method can be extended to fetch the diff too.
+     * Replace the body of an existing merge request note.
      *
      * @param projectId the ID of the project
      * @param mergeRequestIid the internal ID of the merge request
-     * @return list of file paths
+     * @param noteId the ID of the note
+     * @param body the markdown formatted comment
+     * @return {@link NoteUpdate#MISSING} if the note no longer exists (e.g. it
+     *         was deleted by a user), {@link NoteUpdate#FAILED} if the call failed
      */
-    public List<String> fetchChangedFiles(Long projectId, Long mergeRequestIid) {
+    public NoteUpdate updateMergeRequestNote(Long projectId, Long mergeRequestIid, Long noteId, String body) {
+        return updateMergeRequestNote(projectId, mergeRequestIid, noteId, out -> out.append(body));
+    }
+
+    /**
+     * Like {@link #updateMergeRequestNote(Long, Long, Long, String)}, but the
+     * Markdown is written by {@code body} straight into the JSON request body.
+     *
+     * @param projectId the ID of the project
+     * @param mergeRequestIid the internal ID of the merge request
+     * @param noteId the ID of the note
+     * @param body writes the markdown formatted comment
+     * @return the outcome of the update
+     */
+    public NoteUpdate updateMergeRequestNote(Long projectId, Long mergeRequestIid, Long noteId, NoteBody body) {
         if (baseUrl == null || baseUrl.isBlank()) {
-            return Collections.emptyList();
+            return NoteUpdate.FAILED;
         }
-        String url = UriComponentsBuilder.fromHttpUrl(baseUrl)
-                .pathSegment("api", "v4", "projects", projectId.toString(), "merge_requests", mergeRequestIid.toString(), "changes")
-                .toUriString();
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("PRIVATE-TOKEN", apiToken);
+        URI uri = notesUrl(projectId, mergeRequestIid).pathSegment(noteId.toString()).build().toUri();
+        try {
+            restTemplate.execute(uri, HttpMethod.PUT, noteRequest(body), null);
+            log.info("Updated note {} on MR {}", noteId, mergeRequestIid);
+            return NoteUpdate.UPDATED;
+        } catch (HttpClientErrorException.NotFound notFound) {
+            return NoteUpdate.MISSING;
+        } catch (Exception ex) {
+            log.warn("Failed to update note {} on GitLab MR {}: {}", noteId, mergeRequestIid, ex.getMessage());
+            return NoteUpdate.FAILED;
+        }
+    }
+
+    /**
+     * Find the most recent note on a merge request whose body starts with the
+     * given prefix. Only the 100 newest notes are searched.
+     *
+     * @param projectId the ID of the project
+     * @param mergeRequestIid the internal ID of the merge request
+     * @param prefix the expected start of the note body
+     * @return the ID of the note, or {@code null} if none was found or the call failed
+     */
+    public Long findMergeRequestNote(Long projectId, Long mergeRequestIid, String prefix) {
+        if (baseUrl == null || baseUrl.isBlank()) {
+            return null;
+        }
+        URI uri = notesUrl(projectId, mergeRequestIid)
+                .queryParam("sort", "desc")
+                .queryParam("order_by", "created_at")
+                .queryParam("per_page", 100)
+                .build().toUri();
         try {
-            ResponseEntity<Map> response = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(headers), Map.class);
-            Map body = response.getBody();
-            if (body != null) {
-                List<Map> changes = (List<Map>) body.get("changes");
-                if (changes != null) {
-                    return changes.stream()
-                            .map(c -> (String) c.get("new_path"))
-                            .toList();
+            return restTemplate.execute(uri, HttpMethod.GET, this::authenticate, response -> {
+                try (JsonParser parser = JSON.createParser(response.getBody())) {
+                    if (parser.nextToken() != JsonToken.START_ARRAY) {
+                        return null;
+                    }
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        Long id = null;
+                        String body = null;
+                        boolean system = false;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String field = parser.currentName();
+                            JsonToken value = parser.nextToken();
+                            switch (field) {
+                                case "id" -> id = parser.getLongValue();
+                                case "body" -> body = parser.getValueAsString();
+                                case "system" -> system = value == JsonToken.VALUE_TRUE;
+                                default -> parser.skipChildren();
+                            }
+                        }
+                        if (!system && id != null && body != null && body.startsWith(prefix)) {
+                            return id;
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (Exception ex) {
+            log.warn("Failed to list notes of GitLab MR {}: {}", mergeRequestIid, ex.getMessage());
+            return null;
+        }
+    }
+
+    private UriComponentsBuilder notesUrl(Long projectId, Long mergeRequestIid) {
+        return UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .pathSegment("api", "v4", "projects", projectId.toString(), "merge_requests", mergeRequestIid.toString(), "notes");
+    }
+
+    /**
+     * Write {@code {"body": ...}} to the request as the Markdown is rendered,
+     * escaping it on the fly through a fixed-size buffer instead of building
+     * the note and then its JSON as strings.
+     */
+    private RequestCallback noteRequest(NoteBody body) {
+        return request -> {
+            authenticate(request);
+            request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+            StreamingHttpOutputMessage.Body json = out -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), NOTE_BUFFER_CHARS);
+                writer.write("{\"body\":\"");
+                body.writeTo(new JsonStringWriter(writer));
+                writer.write("\"}");
+                writer.flush();
+            };
+            if (request instanceof StreamingHttpOutputMessage streaming) {
+                // Written when the request is sent, and again if it is sent again
+                streaming.setBody(json);
+            } else {
+                json.writeTo(request.getBody());
+            }
+        };
+    }
+
+    private static Long readId(InputStream json) throws IOException {
+        if (json == null) {
+            return null;
+        }
+        try (JsonParser parser = JSON.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("id".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                    return parser.getLongValue();
                 }
+                parser.skipChildren();
             }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieve the diff of a merge request, one file at a time. The pages of
+     * GitLab's merge request diffs endpoint are parsed as a stream: each
+     * file's diff text is handed straight to {@link DiffModel.FileDiff} and
+     * the rest of the JSON is skipped, so neither the response body nor a
+     * combined diff string is ever held in memory. GitLab versions without
+     * that endpoint (before 15.7) are served from the {@code /changes}
+     * endpoint, parsed the same way. If GitLab answers with an error, an
+     * empty diff is returned; if it cannot be reached (including an open
+     * circuit, see {@link OutboundGuard}) the {@link ResourceAccessException}
+     * is passed on so that the caller can treat the diff as missing.
+     *
+     * Pages are requested conditionally: when GitLab confirms with
+     * {@code 304 Not Modified} that a page did not change since it was last
+     * read, the page parsed back then is reused.
+     *
+     * @param projectId the ID of the project
+     * @param mergeRequestIid the internal ID of the merge request
+     * @return the per-file diffs of the merge request
+     */
+    public DiffModel fetchDiffs(Long projectId, Long mergeRequestIid) {
+        if (baseUrl == null || baseUrl.isBlank()) {
+            return DiffModel.ofFiles(Collections.emptyList());
+        }
+        List<DiffModel.FileDiff> files = new ArrayList<>();
+        try {
+            String page = "1";
+            while (page != null && !page.isBlank()) {
+                URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                        .pathSegment("api", "v4", "projects", projectId.toString(), "merge_requests", mergeRequestIid.toString(), "diffs")
+                        .queryParam("page", page)
+                        .queryParam("per_page", diffPageSize)
+                        .build().toUri();
+                DiffPage diffPage = getConditional(uri, (headers, body) -> {
+                    List<DiffModel.FileDiff> pageFiles = new ArrayList<>();
+                    try (JsonParser parser = JSON.createParser(body)) {
+                        if (parser.nextToken() == JsonToken.START_ARRAY) {
+                            readFileDiffs(parser, pageFiles);
+                        }
+                    }
+                    return new DiffPage(List.copyOf(pageFiles), headers.getFirst("X-Next-Page"));
+                });
+                files.addAll(diffPage.files());
+                page = diffPage.nextPage();
+            }
+        } catch (HttpClientErrorException.NotFound notFound) {
+            files.clear();
+            return fetchChanges(projectId, mergeRequestIid);
+        } catch (ResourceAccessException unavailable) {
+            throw unavailable;
+        } catch (Exception ex) {
+            log.warn("Failed to fetch diffs for MR {}: {}", mergeRequestIid, ex.getMessage());
+            return DiffModel.ofFiles(Collections.emptyList());
+        }
+        return DiffModel.ofFiles(files);
+    }
+
+    private DiffModel fetchChanges(Long projectId, Long mergeRequestIid) {
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .pathSegment("api", "v4", "projects", projectId.toString(), "merge_requests", mergeRequestIid.toString(), "changes")
+                .build().toUri();
+        List<DiffModel.FileDiff> files;
+        try {
+            files = getConditional(uri, (headers, body) -> {
+                List<DiffModel.FileDiff> changes = new ArrayList<>();
+                try (JsonParser parser = JSON.createParser(body)) {
+                    if (parser.nextToken() == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String field = parser.currentName();
+                            parser.nextToken();
+                            if ("changes".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                                readFileDiffs(parser, changes);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                }
+                return List.copyOf(changes);
+            });
+        } catch (ResourceAccessException unavailable) {
+            throw unavailable;
         } catch (Exception ex) {
             log.warn("Failed to fetch changed files for MR {}: {}", mergeRequestIid, ex.getMessage());
+            return DiffModel.ofFiles(Collections.emptyList());
+        }
+        return DiffModel.ofFiles(files);
+    }
+
+    /**
+     * Compare two commits of a project. GitLab diffs {@code to} against the
+     * merge base of both commits, so the result only describes the pushed
+     * changes when {@code to} descends from {@code from} through plain
+     * commits; this is reported through {@link CompareResult#fastForward()}.
+     * A merge commit among the new ones (e.g. the target branch merged into
+     * the source branch) brings in changes the compare does not attribute to
+     * the push, so it is never reported as a fast-forward.
+     *
+     * @param projectId the ID of the project
+     * @param fromSha the older commit
+     * @param toSha the newer commit
+     * @return the comparison, or {@code null} if GitLab is not configured or the call failed
+     */
+    public CompareResult fetchCompare(Long projectId, String fromSha, String toSha) {
+        if (baseUrl == null || baseUrl.isBlank()) {
+            return null;
+        }
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .pathSegment("api", "v4", "projects", projectId.toString(), "repository", "compare")
+                .queryParam("from", fromSha)
+                .queryParam("to", toSha)
+                .build().toUri();
+        try {
+            return restTemplate.execute(uri, HttpMethod.GET, this::authenticate, response -> {
+                boolean fastForward = false;
+                List<DiffModel.FileDiff> files = new ArrayList<>();
+                try (JsonParser parser = JSON.createParser(response.getBody())) {
+                    if (parser.nextToken() != JsonToken.START_OBJECT) {
+                        return null;
+                    }
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.currentName();
+                        JsonToken value = parser.nextToken();
+                        if ("commits".equals(field) && value == JsonToken.START_ARRAY) {
+                            fastForward = readFastForward(parser, fromSha);
+                        } else if ("diffs".equals(field) && value == JsonToken.START_ARRAY) {
+                            readFileDiffs(parser, files);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+                DiffModel diff = DiffModel.ofFiles(files);
+                List<String> changedFiles = new ArrayList<>();
+                Set<String> touchedPaths = new LinkedHashSet<>();
+                for (DiffModel.FileDiff file : diff.getFiles()) {
+                    changedFiles.add(file.getPath());
+                    if (file.getNewPath() != null) touchedPaths.add(file.getNewPath());
+                    if (file.getOldPath() != null) touchedPaths.add(file.getOldPath());
+                }
+                return new CompareResult(fastForward, changedFiles, touchedPaths, diff);
+            });
+        } catch (Exception ex) {
+            log.warn("Failed to compare {}..{} in project {}: {}", fromSha, toSha, projectId, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * GET a resource and parse its body, or reuse the result parsed the last
+     * time if GitLab answers the conditional request with {@code 304 Not
+     * Modified}. Parsed results are shared between callers and must be
+     * immutable.
+     */
+    private <T> T getConditional(URI uri, BodyReader<T> reader) {
+        String url = uri.toString();
+        ConditionalResponseCache.Entry cached = responseCache.get(url);
+        return restTemplate.execute(uri, HttpMethod.GET, request -> {
+            authenticate(request);
+            if (cached != null) {
+                request.getHeaders().setIfNoneMatch(cached.etag());
+            }
+        }, response -> {
+            if (cached != null && response.getStatusCode().value() == HttpStatus.NOT_MODIFIED.value()) {
+                responseCache.recordNotModified(cached);
+                @SuppressWarnings("unchecked")
+                T value = (T) cached.value();
+                return value;
+            }
+            CountingInputStream body = new CountingInputStream(response.getBody());
+            T value = reader.read(response.getHeaders(), body);
+            long size = response.getHeaders().getContentLength();
+            responseCache.put(url, response.getHeaders().getETag(), value, size >= 0 ? size : body.count());
+            return value;
+        });
+    }
+
+    private void authenticate(ClientHttpRequest request) {
+        request.getHeaders().set("PRIVATE-TOKEN", apiToken);
+        request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * Read an array of GitLab diff objects ({@code old_path}, {@code new_path},
+     * {@code diff}, ...). The parser must be positioned on the array start and
+     * is left on the array end.
+     */
+    private static void readFileDiffs(JsonParser parser, List<DiffModel.FileDiff> files) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String oldPath = null;
+            String newPath = null;
+            String diff = null;
+            boolean newFile = false;
+            boolean deletedFile = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "old_path" -> oldPath = parser.getValueAsString();
+                    case "new_path" -> newPath = parser.getValueAsString();
+                    case "diff" -> diff = parser.getValueAsString();
+                    case "new_file" -> newFile = value == JsonToken.VALUE_TRUE;
+                    case "deleted_file" -> deletedFile = value == JsonToken.VALUE_TRUE;
+                    default -> parser.skipChildren();
+                }
+            }
+            files.add(DiffModel.FileDiff.of(newFile ? null : oldPath, deletedFile ? null : newPath,
+                    diff != null ? diff : ""));
+        }
+    }
+
+    /**
+     * Read the {@code commits} array of a compare: {@code true} if one of the
+     * commits has {@code fromSha} as parent and none of them is a merge commit.
+     */
+    private static boolean readFastForward(JsonParser parser, String fromSha) throws IOException {
+        boolean descends = false;
+        boolean merge = false;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("parent_ids".equals(field) && value == JsonToken.START_ARRAY) {
+                    int parents = 0;
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        descends |= parser.getText().equals(fromSha);
+                        parents++;
+                    }
+                    merge |= parents > 1;
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return descends && !merge;
+    }
+
+    /**
+     * Writes the Markdown of a note, e.g. {@code AIReviewComment#writeMarkdown}.
+     */
+    @FunctionalInterface
+    public interface NoteBody {
+        void writeTo(Appendable out) throws IOException;
+    }
+
+    /**
+     * Outcome of {@link #updateMergeRequestNote}.
+     */
+    public enum NoteUpdate {
+        UPDATED, MISSING, FAILED
+    }
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(HttpHeaders headers, InputStream body) throws IOException;
+    }
+
+    private record DiffPage(List<DiffModel.FileDiff> files, String nextPage) {
+    }
+
+    /**
+     * Appends characters as the contents of a JSON string literal.
+     */
+    private static final class JsonStringWriter implements Appendable {
+        private final Writer out;
+
+        JsonStringWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            CharSequence value = csq == null ? "null" : csq;
+            return append(value, 0, value.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            // Copy runs of characters that need no escaping in one go
+            int run = start;
+            for (int i = start; i < end; i++) {
+                char c = csq.charAt(i);
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    continue;
+                }
+                copy(csq, run, i);
+                escape(c);
+                run = i + 1;
+            }
+            copy(csq, run, end);
+            return this;
+        }
+
+        private void copy(CharSequence csq, int start, int end) throws IOException {
+            if (csq instanceof String s) {
+                // Writer.append would copy the range into a substring first
+                out.write(s, start, end - start);
+            } else {
+                out.append(csq, start, end);
+            }
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                out.write(c);
+            } else {
+                escape(c);
+            }
+            return this;
+        }
+
+        private void escape(char c) throws IOException {
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> out.write(String.format("\\u%04x", (int) c));
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        long count() {
+            return count;
         }
-        return Collections.emptyList();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,228 @@
+package com.aireviewer.client;
+
+import com.aireviewer.metrics.StatsSource;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP transport shared by the GitLab and Jira clients. Connections are kept
+ * alive in a pool with a limit per host (route) and overall, so consecutive
+ * calls to the same host reuse an open TCP/TLS connection instead of paying
+ * for a new handshake. Connect, read and pool lease timeouts are explicit,
+ * so a stalled server fails a call instead of blocking a review thread
+ * forever. Idle connections are validated before reuse and evicted in the
+ * background.
+ *
+ * <p>Pool occupancy and the time spent waiting for a connection lease are
+ * published on {@code /stats}.</p>
+ */
+@Component
+public class HttpTransport implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(HttpTransport.class);
+
+    private final PoolingHttpClientConnectionManager pool;
+    private final CloseableHttpClient httpClient;
+    private final int maxTotal;
+    private final int maxPerRoute;
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong leaseWaitNanos = new AtomicLong();
+    private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+    private final AtomicLong leaseTimeouts = new AtomicLong();
+    private final RateLimitScheduler rateLimits;
+    private final OutboundGuard guard;
+
+    @Autowired
+    public HttpTransport(RateLimitScheduler rateLimits, OutboundGuard guard,
+                         @Value("${http.client.max-connections:50}") int maxTotal,
+                         @Value("${http.client.max-connections-per-host:20}") int maxPerRoute,
+                         @Value("${http.client.connect-timeout-ms:3000}") long connectTimeoutMs,
+                         @Value("${http.client.read-timeout-ms:30000}") long readTimeoutMs,
+                         @Value("${http.client.lease-timeout-ms:5000}") long leaseTimeoutMs,
+                         @Value("${http.client.keep-alive-ms:60000}") long keepAliveMs) {
+        this.rateLimits = rateLimits;
+        this.guard = guard;
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        // Servers silently drop idle connections; check before reusing one that sat idle
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(new TimedConnectionManager(pool))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(leaseTimeoutMs))
+                        .setConnectionKeepAlive(TimeValue.ofMilliseconds(keepAliveMs))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(keepAliveMs))
+                .build();
+        log.info("HTTP transport: {} connections ({} per host), connect {} ms, read {} ms, lease {} ms",
+                maxTotal, maxPerRoute, connectTimeoutMs, readTimeoutMs, leaseTimeoutMs);
+    }
+
+    HttpTransport(int maxTotal, int maxPerRoute, long connectTimeoutMs, long readTimeoutMs, long leaseTimeoutMs,
+                  long keepAliveMs) {
+        this(null, null, maxTotal, maxPerRoute, connectTimeoutMs, readTimeoutMs, leaseTimeoutMs, keepAliveMs);
+    }
+
+    /**
+     * Create a {@link RestTemplate} that sends its requests through the
+     * shared connection pool, paced by the {@link RateLimitScheduler} and
+     * protected by the {@link OutboundGuard}. Each client gets its own
+     * template so that it can add its own interceptors.
+     *
+     * @return a new template backed by the pooled HTTP client
+     */
+    public RestTemplate newRestTemplate() {
+        List<OutboundRequestFactory.Step> steps = new ArrayList<>();
+        // Wait for a rate limit token before taking one of the host's concurrency slots
+        if (rateLimits != null) {
+            steps.add(rateLimits);
+        }
+        if (guard != null) {
+            steps.add(guard);
+        }
+        HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        // Streamed bodies, e.g. review notes, go to the socket as they are written
+        requestFactory.setBufferRequestBody(false);
+        return new RestTemplate(new OutboundRequestFactory(requestFactory, steps));
+    }
+
+    @Override
+    public String statsName() {
+        return "httpTransport";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        PoolStats total = pool.getTotalStats();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxConnections", maxTotal);
+        stats.put("maxConnectionsPerHost", maxPerRoute);
+        stats.put("active", total.getLeased());
+        stats.put("idle", total.getAvailable());
+        stats.put("waiting", total.getPending());
+        long count = leases.get();
+        stats.put("leases", count);
+        stats.put("leaseWaitAvgMs", count > 0 ? leaseWaitNanos.get() / count / 1_000_000.0 : 0.0);
+        stats.put("leaseWaitMaxMs", maxLeaseWaitNanos.get() / 1_000_000.0);
+        stats.put("leaseTimeouts", leaseTimeouts.get());
+        Map<String, Object> hosts = new LinkedHashMap<>();
+        for (HttpRoute route : pool.getRoutes()) {
+            PoolStats s = pool.getStats(route);
+            hosts.put(route.getTargetHost().toURI(), Map.of(
+                    "active", s.getLeased(), "idle", s.getAvailable(), "waiting", s.getPending()));
+        }
+        stats.put("hosts", hosts);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
+    private void recordLease(long waitedNanos) {
+        leases.incrementAndGet();
+        leaseWaitNanos.addAndGet(waitedNanos);
+        maxLeaseWaitNanos.accumulateAndGet(waitedNanos, Math::max);
+    }
+
+    /**
+     * Delegates to the pool and measures how long callers wait for a
+     * connection lease. Waits show up when all connections to a host are busy.
+     */
+    private final class TimedConnectionManager implements HttpClientConnectionManager {
+        private final HttpClientConnectionManager delegate;
+
+        private TimedConnectionManager(HttpClientConnectionManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+            long start = System.nanoTime();
+            LeaseRequest request = delegate.lease(id, route, requestTimeout, state);
+            return new LeaseRequest() {
+                @Override
+                public ConnectionEndpoint get(Timeout timeout)
+                        throws InterruptedException, ExecutionException, TimeoutException {
+                    try {
+                        ConnectionEndpoint endpoint = request.get(timeout);
+                        recordLease(System.nanoTime() - start);
+                        return endpoint;
+                    } catch (TimeoutException e) {
+                        leaseTimeouts.incrementAndGet();
+                        throw e;
+                    }
+                }
+
+                @Override
+                public boolean cancel() {
+                    return request.cancel();
+                }
+            };
+        }
+
+        @Override
+        public void release(ConnectionEndpoint endpoint, Object newState, TimeValue validDuration) {
+            delegate.release(endpoint, newState, validDuration);
+        }
+
+        @Override
+        public void connect(ConnectionEndpoint endpoint, TimeValue connectTimeout, HttpContext context) throws IOException {
+            delegate.connect(endpoint, connectTimeout, context);
+        }
+
+        @Override
+        public void upgrade(ConnectionEndpoint endpoint, HttpContext context) throws IOException {
+            delegate.upgrade(endpoint, context);
+        }
+
+        @Override
+        public void close(CloseMode closeMode) {
+            delegate.close(closeMode);
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -1,35 +1,50 @@
 package com.aireviewer.client;
 
 import com.aireviewer.model.JiraContext;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Simple Jira client for retrieving issue details. In this MVP the client
- * performs a GET request to the Jira REST API and extracts a few fields into
- * a {@link JiraContext}. Error handling is minimal; failures are logged and
+ * Simple Jira client for retrieving issue details. The client runs a JQL
+ * search against the Jira REST API and extracts a few fields into
+ * {@link JiraContext} instances. Error handling is minimal; failures are logged and
  * an empty context is returned. For a fully featured client consider using
  * asynchronous HTTP libraries and handling pagination, rate limiting, etc.
  */
 @Component
 public class JiraClient {
     private static final Logger log = LoggerFactory.getLogger(JiraClient.class);
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final List<String> FIELDS = List.of("summary", "description", "issuetype", "comment");
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
 
     @Value("${jira.base-url:}")
     private String baseUrl;
@@ -37,54 +52,190 @@ public class JiraClient {
     private String username;
     @Value("${jira.api-token:}")
     private String apiToken;
+    @Value("${jira.max-comments:20}")
+    private int maxComments = 20;
+
+    @Autowired
+    public JiraClient(HttpTransport transport) {
+        this(transport.newRestTemplate());
+    }
+
+    JiraClient(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
 
     /**
-     * Fetch a Jira issue by its key. If the call fails, an empty JiraContext
-     * is returned and the error is logged.
+     * Fetch a Jira issue by its key. If the issue is not found or Jira answers
+     * with an error, an empty JiraContext is returned (see
+     * {@link #searchIssues(Collection)}).
      *
      * @param key issue key (e.g. PROJECT-123)
      * @return Jira context with basic fields
      */
     public JiraContext fetchIssue(String key) {
-        if (key == null || key.isBlank() || baseUrl == null || baseUrl.isBlank()) {
-            // Return empty context if configuration is missing or key invalid
+        if (key == null || key.isBlank()) {
             return new JiraContext(key, null, null, null, Collections.emptyList());
         }
+        JiraContext issue = searchIssues(List.of(key)).get(key);
+        return issue != null ? issue : new JiraContext(key, null, null, null, Collections.emptyList());
+    }
+
+    /**
+     * Fetch several Jira issues with a single JQL search ({@code key in (...)}).
+     * Only the fields a {@link JiraContext} needs are requested, the response
+     * is parsed as a stream and only the most recent {@code jira.max-comments}
+     * comments of each issue are kept. Keys that do not exist are missing from
+     * the result. If Jira answers with an error, an empty map is returned and
+     * the error is logged; if Jira cannot be reached (including an open
+     * circuit, see {@link OutboundGuard}) the {@link ResourceAccessException}
+     * is passed on so that the caller can treat the issues as missing.
+     *
+     * @param keys issue keys
+     * @return the issues found, by key
+     */
+    public Map<String, JiraContext> searchIssues(Collection<String> keys) {
+        if (keys.isEmpty() || baseUrl == null || baseUrl.isBlank()) {
+            return Collections.emptyMap();
+        }
+        URI uri = UriComponentsBuilder.fromHttpUrl(baseUrl)
+                .pathSegment("rest", "api", "2", "search")
+                .build().toUri();
         try {
-            String url = UriComponentsBuilder.fromHttpUrl(baseUrl)
-                    .pathSegment("rest", "api", "2", "issue", key)
-                    .toUriString();
-            HttpHeaders headers = new HttpHeaders();
-            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
-            // Basic auth header
-            String auth = username + ":" + apiToken;
-            String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
-            headers.set("Authorization", "Basic " + encodedAuth);
+            Map<String, JiraContext> issues = restTemplate.execute(uri, HttpMethod.POST,
+                    request -> writeSearch(request, keys), this::readSearch);
+            return issues != null ? issues : Collections.emptyMap();
+        } catch (ResourceAccessException unavailable) {
+            throw unavailable;
+        } catch (Exception ex) {
+            log.warn("Failed to fetch Jira issues {}: {}", keys, ex.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    private void writeSearch(ClientHttpRequest request, Collection<String> keys) throws IOException {
+        HttpHeaders headers = request.getHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        // Basic auth header
+        String auth = username + ":" + apiToken;
+        String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
+        headers.set("Authorization", "Basic " + encodedAuth);
+        try (JsonGenerator json = JSON.createGenerator(request.getBody())) {
+            json.writeStartObject();
+            StringBuilder jql = new StringBuilder("key in (");
+            for (String key : keys) {
+                if (jql.length() > 8) jql.append(',');
+                jql.append('"').append(key.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            }
+            json.writeStringField("jql", jql.append(')').toString());
+            json.writeNumberField("maxResults", keys.size());
+            // Keys of deleted or inaccessible issues must not fail the whole search
+            json.writeBooleanField("validateQuery", false);
+            json.writeArrayFieldStart("fields");
+            for (String field : FIELDS) {
+                json.writeString(field);
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+    }
 
-            ResponseEntity<Map> response = restTemplate.getForEntity(url, Map.class);
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                Map body = response.getBody();
-                Map fields = (Map) body.get("fields");
-                String summary = fields != null ? (String) fields.get("summary") : null;
-                String description = fields != null ? (String) fields.get("description") : null;
-                Map issuetype = fields != null ? (Map) fields.get("issuetype") : null;
-                String typeName = issuetype != null ? (String) issuetype.get("name") : null;
-                // Extract comments if available
-                Map comment = fields != null ? (Map) fields.get("comment") : null;
-                List<String> commentsList = Collections.emptyList();
-                if (comment != null) {
-                    List<Map> comments = (List<Map>) comment.get("comments");
-                    if (comments != null) {
-                        commentsList = comments.stream()
-                                .map(c -> (String) c.get("body"))
-                                .toList();
+    private Map<String, JiraContext> readSearch(ClientHttpResponse response) throws IOException {
+        Map<String, JiraContext> issues = new LinkedHashMap<>();
+        try (JsonParser parser = JSON.createParser(response.getBody())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return issues;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                if (parser.nextToken() == JsonToken.START_ARRAY && "issues".equals(field)) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        JiraContext issue = readIssue(parser);
+                        if (issue.getKey() != null) {
+                            issues.put(issue.getKey(), issue);
+                        }
                     }
+                } else {
+                    parser.skipChildren();
                 }
-                return new JiraContext(key, summary, description, typeName, commentsList);
             }
-        } catch (Exception ex) {
-            log.warn("Failed to fetch Jira issue {}: {}", key, ex.getMessage());
         }
-        return new JiraContext(key, null, null, null, Collections.emptyList());
+        return issues;
+    }
+
+    private JiraContext readIssue(JsonParser parser) throws IOException {
+        String key = null;
+        String summary = null;
+        String description = null;
+        String typeName = null;
+        Deque<String> comments = new ArrayDeque<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("key".equals(name)) {
+                key = parser.getValueAsString();
+            } else if ("fields".equals(name) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken fieldValue = parser.nextToken();
+                    switch (field) {
+                        case "summary" -> summary = parser.getValueAsString();
+                        case "description" -> description = parser.getValueAsString();
+                        case "issuetype" -> typeName = fieldValue == JsonToken.START_OBJECT ? readName(parser) : null;
+                        case "comment" -> {
+                            if (fieldValue == JsonToken.START_OBJECT) readComments(parser, comments);
+                        }
+                        default -> parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return new JiraContext(key, summary, description, typeName, List.copyOf(comments));
+    }
+
+    private static String readName(JsonParser parser) throws IOException {
+        String name = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("name".equals(field)) {
+                name = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Read the comment field, keeping only the bodies of the most recent
+     * comments; older ones are dropped while parsing.
+     */
+    private void readComments(JsonParser parser, Deque<String> comments) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            if (parser.nextToken() == JsonToken.START_ARRAY && "comments".equals(field)) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    String body = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.currentName();
+                        parser.nextToken();
+                        if ("body".equals(name)) {
+                            body = parser.getValueAsString();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (body != null && maxComments > 0) {
+                        if (comments.size() == maxComments) comments.removeFirst();
+                        comments.addLast(body);
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
     }
-}
\ No newline at end of file
+}
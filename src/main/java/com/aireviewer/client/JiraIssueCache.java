@@ -0,0 +1,293 @@
+package com.aireviewer.client;
+
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.JiraContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Cache of Jira issues in front of {@link JiraClient}. Several merge requests
+ * usually reference the same ticket and every push to a merge request needs
+ * it again, so most lookups are repeats.
+ *
+ * The cache is bounded by the estimated size of the cached issues
+ * ({@code jira.cache.max-bytes}, descriptions and comment threads vary a lot)
+ * and entries expire after {@code jira.cache.ttl-seconds}. Concurrent misses
+ * for the same key share a single call to Jira. If the review making that
+ * call is cancelled ({@link CancellationToken}) and the call fails because of
+ * it, the waiting reviews load the key themselves instead of failing with
+ * it. Entries can be evicted
+ * precisely when Jira reports a change to the issue; a load that was already
+ * running when its key was evicted is not cached. Only issues that were
+ * actually found are cached, so an unreachable Jira is retried on the next
+ * lookup. Setting the size to 0 disables caching.
+ */
+@Component
+public class JiraIssueCache implements StatsSource {
+    // Rough per-object overhead of the context, its strings and the comment list
+    private static final int ENTRY_OVERHEAD = 256;
+    private static final int STRING_OVERHEAD = 40;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<JiraContext>> loading = new ConcurrentHashMap<>();
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sharedLoads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Autowired
+    public JiraIssueCache(@Value("${jira.cache.max-bytes:8388608}") long maxBytes,
+                          @Value("${jira.cache.ttl-seconds:600}") long ttlSeconds) {
+        this(maxBytes, ttlSeconds, Clock.systemUTC());
+    }
+
+    JiraIssueCache(long maxBytes, long ttlSeconds, Clock clock) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.clock = clock;
+    }
+
+    /**
+     * Return the cached issue or load it. When another thread is already
+     * loading the same key, wait for its result instead of calling Jira again.
+     *
+     * @param key the issue key
+     * @param loader loads the issue on a miss
+     * @return the issue as returned by the loader
+     */
+    public JiraContext get(String key, Function<String, JiraContext> loader) {
+        if (maxBytes <= 0 || key == null) {
+            return loader.apply(key);
+        }
+        return getAll(List.of(key), keys -> {
+            JiraContext loaded = loader.apply(key);
+            return loaded != null ? Map.of(key, loaded) : Map.of();
+        }).get(key);
+    }
+
+    /**
+     * Return the cached issues and load all missing ones with a single call
+     * to {@code loader}. Keys that other threads are already loading are not
+     * requested again; their results are awaited instead.
+     *
+     * @param keys the issue keys
+     * @param loader loads the given keys, omitting keys that do not exist
+     * @return the issues found, in the order of {@code keys}
+     */
+    public Map<String, JiraContext> getAll(Collection<String> keys, Function<List<String>, Map<String, JiraContext>> loader) {
+        if (maxBytes <= 0) {
+            return loader.apply(List.copyOf(keys));
+        }
+        Map<String, JiraContext> found = new HashMap<>();
+        Map<String, CompletableFuture<JiraContext>> awaited = new LinkedHashMap<>();
+        Map<String, CompletableFuture<JiraContext>> owned = new LinkedHashMap<>();
+        for (String key : keys) {
+            JiraContext cached = lookup(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                found.put(key, cached);
+                continue;
+            }
+            misses.incrementAndGet();
+            CompletableFuture<JiraContext> load = new CompletableFuture<>();
+            CompletableFuture<JiraContext> running = loading.putIfAbsent(key, load);
+            if (running != null) {
+                sharedLoads.incrementAndGet();
+                awaited.put(key, running);
+            } else {
+                owned.put(key, load);
+            }
+        }
+        if (!owned.isEmpty()) {
+            Map<String, JiraContext> loaded;
+            try {
+                loaded = loader.apply(new ArrayList<>(owned.keySet()));
+            } catch (RuntimeException e) {
+                // A failure caused by cancelling this review says nothing about the issues
+                RuntimeException failure = CancellationToken.current().isCancelled() ? new AbandonedLoad() : e;
+                owned.forEach((key, load) -> {
+                    loading.remove(key, load);
+                    load.completeExceptionally(failure);
+                });
+                throw e;
+            }
+            owned.forEach((key, load) -> {
+                JiraContext issue = loaded.get(key);
+                store(key, load, issue);
+                load.complete(issue);
+                if (issue != null) found.put(key, issue);
+            });
+        }
+        List<String> abandoned = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<JiraContext>> e : awaited.entrySet()) {
+            try {
+                JiraContext issue = e.getValue().join();
+                if (issue != null) found.put(e.getKey(), issue);
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof AbandonedLoad) {
+                    abandoned.add(e.getKey());
+                    continue;
+                }
+                throw ex.getCause() instanceof RuntimeException re ? re : ex;
+            }
+        }
+        if (!abandoned.isEmpty()) {
+            // Take over the loads of a cancelled review, under this review's own token
+            found.putAll(getAll(abandoned, loader));
+        }
+        Map<String, JiraContext> result = new LinkedHashMap<>();
+        for (String key : keys) {
+            JiraContext issue = found.get(key);
+            if (issue != null) result.put(key, issue);
+        }
+        return result;
+    }
+
+    /**
+     * Drop a cached issue, e.g. because Jira reported that it changed.
+     *
+     * @param key the issue key
+     * @return {@code true} if an entry or a running load was affected
+     */
+    public boolean invalidate(String key) {
+        boolean affected;
+        lock.lock();
+        try {
+            affected = loading.remove(key) != null;
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.size;
+                affected = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (affected) {
+            invalidations.incrementAndGet();
+        }
+        return affected;
+    }
+
+    private JiraContext lookup(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (clock.millis() - entry.createdAt > ttlMillis) {
+                entries.remove(key);
+                bytes -= entry.size;
+                evictions.incrementAndGet();
+                return null;
+            }
+            return entry.context;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(String key, CompletableFuture<JiraContext> load, JiraContext context) {
+        long size = isFound(context) ? estimateSize(context) : Long.MAX_VALUE;
+        lock.lock();
+        try {
+            // Not cached if the key was invalidated while loading (the mapping is gone then)
+            if (!loading.remove(key, load) || size > maxBytes) {
+                return;
+            }
+            Entry previous = entries.put(key, new Entry(context, size, clock.millis()));
+            if (previous != null) {
+                bytes -= previous.size;
+            }
+            bytes += size;
+            Iterator<Entry> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().size;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isFound(JiraContext context) {
+        return context != null && context.getSummary() != null;
+    }
+
+    static long estimateSize(JiraContext context) {
+        long size = ENTRY_OVERHEAD + stringSize(context.getKey()) + stringSize(context.getSummary())
+                + stringSize(context.getDescription()) + stringSize(context.getIssueType());
+        List<String> comments = context.getComments();
+        if (comments != null) {
+            for (String comment : comments) {
+                size += 8 + stringSize(comment);
+            }
+        }
+        return size;
+    }
+
+    private static long stringSize(String s) {
+        // Upper bound: compact strings need only one byte per char for Latin-1 text
+        return s == null ? 0 : STRING_OVERHEAD + (long) s.length() * 2;
+    }
+
+    @Override
+    public String statsName() {
+        return "jiraCache";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("size", entries.size());
+            stats.put("bytes", bytes);
+        } finally {
+            lock.unlock();
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("sharedLoads", sharedLoads.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+
+    private record Entry(JiraContext context, long size, long createdAt) {
+    }
+
+    /**
+     * Tells the waiters of a load that its owner was cancelled before it
+     * completed.
+     */
+    private static final class AbandonedLoad extends RuntimeException {
+        AbandonedLoad() {
+            super("Load abandoned by a cancelled review", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.aireviewer.client;
+
+import com.aireviewer.metrics.StatsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Protects GitLab and Jira, and our review workers, when one of them gets
+ * slow or fails. Installed as the last step of the requests of the templates
+ * created by {@link HttpTransport} ({@link OutboundRequestFactory}), so that
+ * every request sent, including those the {@link RateLimitScheduler} sends
+ * again, goes through it. It keeps per host:
+ * <ul>
+ *   <li>an adaptive concurrency limit (AIMD): it grows by one per round of
+ *   calls that used the whole limit and halves when a call fails, is throttled
+ *   ({@code 429}) or takes longer than {@code http.guard.slow-call-ms}. Calls
+ *   over the limit wait up to {@code http.guard.acquire-timeout-ms};</li>
+ *   <li>a circuit breaker that opens after
+ *   {@code http.guard.failure-threshold} consecutive failures (I/O errors and
+ *   5xx responses). While open, calls fail immediately with
+ *   {@link UpstreamUnavailableException}; after {@code http.guard.open-ms} a
+ *   single probe call decides whether it closes again;</li>
+ *   <li>retries with exponential backoff and full jitter for idempotent reads
+ *   ({@code GET}/{@code HEAD}) that failed with an I/O error or a 502, 503 or
+ *   504 response. A call of a cancelled review ({@link CancellationToken})
+ *   is neither sent nor retried, and one that fails or is closed because
+ *   of the cancellation does not count as a failure or a slow call of the
+ *   host.</li>
+ * </ul>
+ * A call counts as in flight until its response is closed, i.e. including
+ * reading the body. The clients report such failures as missing context, so
+ * a review proceeds with partial context instead of waiting on a broken
+ * upstream.
+ */
+@Component
+public class OutboundGuard implements OutboundRequestFactory.Step, StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(OutboundGuard.class);
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long acquireTimeoutNanos;
+    private final long slowCallNanos;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final int maxRetries;
+    private final long retryBaseMs;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    public OutboundGuard(@Value("${http.guard.initial-limit:10}") int initialLimit,
+                         @Value("${http.guard.max-limit:20}") int maxLimit,
+                         @Value("${http.guard.acquire-timeout-ms:2000}") long acquireTimeoutMs,
+                         @Value("${http.guard.slow-call-ms:5000}") long slowCallMs,
+                         @Value("${http.guard.failure-threshold:5}") int failureThreshold,
+                         @Value("${http.guard.open-ms:30000}") long openMs,
+                         @Value("${http.guard.max-retries:2}") int maxRetries,
+                         @Value("${http.guard.retry-base-ms:200}") long retryBaseMs) {
+        this.minLimit = 1;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.initialLimit = Math.max(minLimit, Math.min(initialLimit, this.maxLimit));
+        this.acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMs);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryBaseMs = Math.max(1, retryBaseMs);
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, OutboundRequestFactory.Execution execution)
+            throws IOException {
+        Host host = hosts.computeIfAbsent(hostKey(request.getURI()), Host::new);
+        boolean idempotent = HttpMethod.GET.equals(request.getMethod()) || HttpMethod.HEAD.equals(request.getMethod());
+        for (int attempt = 0; ; attempt++) {
+            CancellationToken.current().checkCall();
+            long start = host.acquire();
+            ClientHttpResponse response;
+            try {
+                response = execution.execute();
+            } catch (IOException e) {
+                if (abandoned()) {
+                    // Says nothing about the host
+                    host.release(start);
+                    throw e;
+                }
+                host.release(start, true, true);
+                if (!idempotent || attempt >= maxRetries) {
+                    throw e;
+                }
+                log.info("Retrying {} {} after {}", request.getMethod(), request.getURI().getPath(), e.toString());
+                backoff(host, attempt);
+                continue;
+            }
+            int status = response.getStatusCode().value();
+            boolean failed = status >= 500;
+            boolean overloaded = failed || status == 429;
+            if (idempotent && attempt < maxRetries && (status == 502 || status == 503 || status == 504)) {
+                response.close();
+                host.release(start, failed, overloaded);
+                log.info("Retrying {} {} after status {}", request.getMethod(), request.getURI().getPath(), status);
+                backoff(host, attempt);
+                continue;
+            }
+            return new GuardedResponse(response, host, start, failed, overloaded);
+        }
+    }
+
+    /**
+     * @return {@code true} if the calling review was cancelled or its thread
+     *         interrupted, so that the call failed because we gave up on it.
+     *         Timeouts, also {@link InterruptedIOException}s, are not covered.
+     */
+    private static boolean abandoned() {
+        return CancellationToken.current().isCancelled() || Thread.currentThread().isInterrupted();
+    }
+
+    private void backoff(Host host, int attempt) throws IOException {
+        host.retries.incrementAndGet();
+        long ceiling = retryBaseMs << Math.min(attempt, 16);
+        // Wakes up, and gives up, as soon as the review making the call is cancelled
+        CancellationToken.current().sleep(TimeUnit.MILLISECONDS.toNanos(1 + ThreadLocalRandom.current().nextLong(ceiling)));
+    }
+
+    private static String hostKey(URI uri) {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getHost() + ":" + port;
+    }
+
+    @Override
+    public String statsName() {
+        return "outbound";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxLimit", maxLimit);
+        stats.put("failureThreshold", failureThreshold);
+        Map<String, Object> perHost = new LinkedHashMap<>();
+        hosts.forEach((name, host) -> perHost.put(name, host.stats()));
+        stats.put("hosts", perHost);
+        return stats;
+    }
+
+    /**
+     * Concurrency limit and circuit breaker state of one host.
+     */
+    private final class Host {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private double limit = initialLimit;
+        private int inFlight;
+        private int consecutiveFailures;
+        private long openUntil;
+        private boolean open;
+        private boolean probing;
+        private long lastDecrease = System.nanoTime();
+        private long calls;
+        private long failures;
+        private long rejected;
+        private long circuitOpens;
+        private long probeStart;
+        private final AtomicLong retries = new AtomicLong();
+
+        private Host(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Wait for a free slot under the limit.
+         *
+         * @return the start time of the call
+         */
+        long acquire() throws IOException {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                if (open) {
+                    if (now - openUntil < 0 || probing) {
+                        rejected++;
+                        throw new UpstreamUnavailableException("Circuit open for " + name);
+                    }
+                    // Half-open: let exactly this call through as a probe
+                    probing = true;
+                }
+                long remaining = acquireTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        rejected++;
+                        if (probing) probing = false;
+                        throw new UpstreamUnavailableException("Concurrency limit " + (int) limit + " reached for " + name);
+                    }
+                    try {
+                        remaining = released.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for " + name);
+                    }
+                }
+                inFlight++;
+                calls++;
+                long start = System.nanoTime();
+                if (probing) probeStart = start;
+                return start;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Release the slot of a call that was abandoned by its caller, without
+         * counting it for or against the host.
+         */
+        void release(long start) {
+            lock.lock();
+            try {
+                inFlight--;
+                if (probing && start == probeStart) {
+                    // Undecided; the next call probes again
+                    probing = false;
+                }
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long start, boolean failed, boolean overloaded) {
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                boolean saturated = inFlight >= (int) limit;
+                boolean probe = probing && start == probeStart;
+                inFlight--;
+                if (failed) {
+                    failures++;
+                    consecutiveFailures++;
+                    if (probe || (!open && consecutiveFailures >= failureThreshold)) {
+                        if (!open) {
+                            log.warn("Opening circuit for {} after {} consecutive failures", name, consecutiveFailures);
+                        }
+                        open = true;
+                        openUntil = now + openNanos;
+                        circuitOpens++;
+                    }
+                } else {
+                    consecutiveFailures = 0;
+                    if (probe) {
+                        log.info("Closing circuit for {}", name);
+                        open = false;
+                    }
+                }
+                if (probe) probing = false;
+                if (overloaded || now - start > slowCallNanos) {
+                    // Halve at most once per round trip: calls started before the last decrease don't count again
+                    if (start - lastDecrease > 0) {
+                        limit = Math.max(minLimit, limit / 2);
+                        lastDecrease = now;
+                    }
+                } else if (saturated) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            lock.lock();
+            try {
+                stats.put("limit", (int) limit);
+                stats.put("inFlight", inFlight);
+                stats.put("circuit", open ? (probing ? "half-open" : "open") : "closed");
+                stats.put("calls", calls);
+                stats.put("failures", failures);
+                stats.put("rejected", rejected);
+                stats.put("circuitOpens", circuitOpens);
+            } finally {
+                lock.unlock();
+            }
+            stats.put("retries", retries.get());
+            return stats;
+        }
+    }
+
+    /**
+     * Keeps the call in flight until the response is closed.
+     */
+    private static final class GuardedResponse implements ClientHttpResponse {
+        private final ClientHttpResponse delegate;
+        private final Host host;
+        private final long start;
+        private final boolean failed;
+        private final boolean overloaded;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private GuardedResponse(ClientHttpResponse delegate, Host host, long start, boolean failed, boolean overloaded) {
+            this.delegate = delegate;
+            this.host = host;
+            this.start = start;
+            this.failed = failed;
+            this.overloaded = overloaded;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        @Deprecated
+        public int getRawStatusCode() throws IOException {
+            return delegate.getStatusCode().value();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    if (!failed && abandoned()) {
+                        // Closed unread because the review was cancelled; its duration means nothing
+                        host.release(start);
+                    } else {
+                        host.release(start, failed, overloaded);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.aireviewer.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Request factory of the templates created by {@link HttpTransport}: runs the
+ * outbound steps ({@link RateLimitScheduler}, then {@link OutboundGuard})
+ * around every call. Unlike a {@code ClientHttpRequestInterceptor}, whose
+ * execution can only be used once, a step may send its request again through
+ * all steps after it. A request the rate limits send again after a
+ * {@code 429} therefore takes a new slot of the guard and is counted by it
+ * like any other call.
+ *
+ * <p>A body set with {@link StreamingHttpOutputMessage#setBody} is passed on
+ * unbuffered and written again for each attempt; a body written to
+ * {@link ClientHttpRequest#getBody()} is buffered.</p>
+ */
+final class OutboundRequestFactory implements ClientHttpRequestFactory {
+
+    /**
+     * One step of an outgoing call.
+     */
+    interface Step {
+        /**
+         * @param request the request, with its final headers
+         * @param execution sends the request through the following steps;
+         *                  can be called again to send it again
+         * @return the response for the caller
+         */
+        ClientHttpResponse intercept(HttpRequest request, Execution execution) throws IOException;
+    }
+
+    /**
+     * Sends the request through the remaining steps.
+     */
+    interface Execution {
+        ClientHttpResponse execute() throws IOException;
+    }
+
+    private final ClientHttpRequestFactory delegate;
+    private final List<Step> steps;
+
+    OutboundRequestFactory(ClientHttpRequestFactory delegate, List<? extends Step> steps) {
+        this.delegate = delegate;
+        this.steps = List.copyOf(steps);
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new OutboundRequest(uri, httpMethod);
+    }
+
+    private final class OutboundRequest extends AbstractClientHttpRequest implements StreamingHttpOutputMessage {
+        private final URI uri;
+        private final HttpMethod method;
+        private ByteArrayOutputStream buffer;
+        private Body body;
+
+        private OutboundRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        public void setBody(Body body) {
+            assertNotExecuted();
+            this.body = body;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            if (buffer == null) {
+                buffer = new ByteArrayOutputStream(1024);
+                body = buffer::writeTo;
+            }
+            return buffer;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            return execute(0);
+        }
+
+        private ClientHttpResponse execute(int step) throws IOException {
+            if (step < steps.size()) {
+                return steps.get(step).intercept(this, () -> execute(step + 1));
+            }
+            ClientHttpRequest request = delegate.createRequest(uri, method);
+            request.getHeaders().putAll(getHeaders());
+            if (body != null) {
+                if (request instanceof StreamingHttpOutputMessage streaming) {
+                    streaming.setBody(body);
+                } else {
+                    body.writeTo(request.getBody());
+                }
+            }
+            return request.execute();
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.aireviewer.client;
+
+import com.aireviewer.metrics.StatsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Paces outgoing calls so that they stay within the rate limits of GitLab and
+ * Jira instead of running into {@code 429 Too Many Requests}. Installed as the
+ * first step of the requests of the templates created by
+ * {@link HttpTransport} ({@link OutboundRequestFactory}), it keeps a
+ * token bucket per host and credential (API token), since both upstreams
+ * count requests per user. Credentials are told apart by a keyed hash that
+ * never leaves the process; {@code /stats} lists the buckets of a host as
+ * {@code host#1}, {@code host#2}, ... in the order they were first used.
+ *
+ * <p>The buckets start at {@code http.rate-limit.requests-per-second} with a
+ * burst of {@code http.rate-limit.burst} and follow what the upstream
+ * reports: {@code RateLimit-Remaining}/{@code RateLimit-Reset} (GitLab) or
+ * {@code X-RateLimit-Remaining}/{@code X-RateLimit-Reset} (Jira) spread the
+ * remaining quota evenly until the reset, and a {@code 429} (or {@code 503}
+ * with {@code Retry-After}) pauses the bucket for the announced time. A
+ * throttled request is sent again once the pause is over, through the
+ * {@link OutboundGuard} like the first attempt. A call that would
+ * have to wait longer than {@code http.rate-limit.max-wait-ms} in total fails
+ * with {@link UpstreamUnavailableException}.</p>
+ *
+ * <p>Calls made for interactive reviews have priority: {@link Priority#BULK}
+ * calls wait while interactive calls are waiting and leave a share of the
+ * burst ({@code http.rate-limit.bulk-reserve}) to them. The priority is taken
+ * from the calling thread, see {@link #callAs(Priority, Supplier)}.</p>
+ *
+ * <p>Calls of a cancelled review ({@link CancellationToken}) stop waiting
+ * and fail with {@link java.io.InterruptedIOException}; a response that
+ * arrives after the cancellation is closed unread.</p>
+ */
+@Component
+public class RateLimitScheduler implements OutboundRequestFactory.Step, StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(RateLimitScheduler.class);
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.INTERACTIVE);
+    // Pause after a 429 that does not say how long to wait
+    private static final long DEFAULT_PAUSE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // How often a waiting call notices that its review was cancelled
+    private static final long CANCEL_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Scheduling priority of outgoing calls.
+     */
+    public enum Priority {
+        /** Calls a developer is waiting for, e.g. the review of a pushed merge request. */
+        INTERACTIVE,
+        /** Background work such as backfills; served after interactive calls. */
+        BULK
+    }
+
+    private final double defaultRate;
+    private final double burst;
+    private final long maxWaitNanos;
+    private final double bulkReserve;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> bucketsPerHost = new ConcurrentHashMap<>();
+    private final SecretKeySpec credentialKey;
+
+    public RateLimitScheduler(@Value("${http.rate-limit.requests-per-second:10}") double requestsPerSecond,
+                              @Value("${http.rate-limit.burst:20}") int burst,
+                              @Value("${http.rate-limit.max-wait-ms:60000}") long maxWaitMs,
+                              @Value("${http.rate-limit.bulk-reserve:0.5}") double bulkReserve) {
+        this.defaultRate = requestsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        this.bulkReserve = Math.max(0, Math.min(bulkReserve, 1)) * this.burst;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.credentialKey = new SecretKeySpec(key, "HmacSHA256");
+    }
+
+    /**
+     * Run {@code call} with the given priority for all HTTP calls it makes on
+     * the current thread.
+     *
+     * @param priority the priority
+     * @param call the work to run
+     * @return the result of {@code call}
+     */
+    public static <T> T callAs(Priority priority, Supplier<T> call) {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(priority);
+        try {
+            return call.get();
+        } finally {
+            PRIORITY.set(previous);
+        }
+    }
+
+    /**
+     * @return the priority of calls made by the current thread
+     */
+    public static Priority currentPriority() {
+        return PRIORITY.get();
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, OutboundRequestFactory.Execution execution)
+            throws IOException {
+        String host = request.getURI().getHost();
+        Bucket bucket = buckets.computeIfAbsent(host + "#" + credential(request.getHeaders()), key -> new Bucket(host,
+                host + "#" + bucketsPerHost.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet()));
+        Priority priority = PRIORITY.get();
+        CancellationToken token = CancellationToken.current();
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (true) {
+            bucket.acquire(priority, deadline, token);
+            ClientHttpResponse response = execution.execute();
+            if (token.isCancelled()) {
+                // Nobody will read it; don't let the caller parse it either
+                response.close();
+                token.checkCall();
+            }
+            int status = response.getStatusCode().value();
+            boolean throttled = bucket.observe(response.getHeaders(), status);
+            if (!throttled || System.nanoTime() - deadline >= 0) {
+                return response;
+            }
+            // Throttled requests were not processed, so sending them again is safe for every method
+            response.close();
+            log.info("{} throttled {} {} with status {}; waiting to send it again", host, request.getMethod(),
+                    request.getURI().getPath(), status);
+        }
+    }
+
+    private String credential(HttpHeaders headers) {
+        String token = headers.getFirst("PRIVATE-TOKEN");
+        if (token == null) {
+            token = headers.getFirst(HttpHeaders.AUTHORIZATION);
+        }
+        if (token == null) {
+            return "anonymous";
+        }
+        try {
+            // Keyed with a per-process secret, so the key says nothing about the token outside this process
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(credentialKey);
+            byte[] digest = mac.doFinal(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    static long retryAfterNanos(String value, long nowMillis) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+        } catch (NumberFormatException ignored) {
+            // Not delay-seconds; an HTTP date then
+        }
+        try {
+            long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, at - nowMillis));
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse a rate limit reset: epoch seconds (GitLab) or an ISO-8601
+     * timestamp (Jira).
+     *
+     * @return the reset time in epoch milliseconds, or -1
+     */
+    static long resetMillis(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+        } catch (NumberFormatException ignored) {
+            // Not epoch seconds
+        }
+        try {
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            try {
+                return Instant.parse(value).toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    private static String first(HttpHeaders headers, String name) {
+        String value = headers.getFirst(name);
+        return value != null ? value : headers.getFirst("X-" + name);
+    }
+
+    @Override
+    public String statsName() {
+        return "rateLimits";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("defaultRequestsPerSecond", defaultRate);
+        stats.put("burst", burst);
+        Map<String, Object> perBucket = new LinkedHashMap<>();
+        buckets.values().stream()
+                .sorted(Comparator.comparing(bucket -> bucket.name))
+                .forEach(bucket -> perBucket.put(bucket.name, bucket.stats()));
+        stats.put("buckets", perBucket);
+        return stats;
+    }
+
+    /**
+     * Token bucket of one host and credential.
+     */
+    private final class Bucket {
+        private final String host;
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private double tokens = burst;
+        private double rate = defaultRate;
+        // Until then the rate follows the upstream's headers instead of the default
+        private long rateUntil;
+        private long refilledAt = System.nanoTime();
+        private long pausedUntil = refilledAt;
+        private int interactiveWaiting;
+        private long calls;
+        private long throttled;
+        private long paced;
+        private long waitedNanos;
+        private long rejected;
+
+        private Bucket(String host, String name) {
+            this.host = host;
+            this.name = name;
+        }
+
+        void acquire(Priority priority, long deadline, CancellationToken token) throws IOException {
+            lock.lock();
+            boolean bulk = priority == Priority.BULK;
+            long start = System.nanoTime();
+            if (!bulk) interactiveWaiting++;
+            try {
+                while (true) {
+                    token.checkCall();
+                    long now = System.nanoTime();
+                    refill(now);
+                    long waitNanos;
+                    if (pausedUntil - now > 0) {
+                        waitNanos = pausedUntil - now;
+                    } else if (bulk && interactiveWaiting > 0) {
+                        waitNanos = TimeUnit.MILLISECONDS.toNanos(100);
+                    } else {
+                        double needed = bulk ? bulkReserve + 1 : 1;
+                        if (tokens >= needed) {
+                            tokens -= 1;
+                            calls++;
+                            if (now != start) {
+                                paced++;
+                                waitedNanos += now - start;
+                            }
+                            return;
+                        }
+                        waitNanos = rate > 0 ? (long) ((needed - tokens) / rate * 1e9) : TimeUnit.SECONDS.toNanos(1);
+                    }
+                    long remaining = deadline - now;
+                    if (waitNanos > remaining) {
+                        rejected++;
+                        throw new UpstreamUnavailableException("Rate limit of " + host + " would delay the call by "
+                                + TimeUnit.NANOSECONDS.toMillis(waitNanos) + " ms");
+                    }
+                    try {
+                        long slice = token == CancellationToken.NONE ? waitNanos : Math.min(waitNanos, CANCEL_CHECK_NANOS);
+                        changed.awaitNanos(Math.max(slice, 1_000_000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the rate limit of " + host);
+                    }
+                }
+            } finally {
+                if (!bulk) {
+                    interactiveWaiting--;
+                    changed.signalAll();
+                }
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Adjust the bucket to the rate limit headers of a response.
+         *
+         * @return {@code true} if the request was throttled and should be sent again
+         */
+        boolean observe(HttpHeaders headers, int status) {
+            long nowMillis = System.currentTimeMillis();
+            long retryAfter = retryAfterNanos(headers.getFirst(HttpHeaders.RETRY_AFTER), nowMillis);
+            boolean throttledNow = status == 429 || (status == 503 && retryAfter >= 0);
+            String remainingHeader = first(headers, "RateLimit-Remaining");
+            long reset = resetMillis(first(headers, "RateLimit-Reset"));
+            if (!throttledNow && remainingHeader == null) {
+                return false;
+            }
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                if (throttledNow) {
+                    throttled++;
+                    tokens = 0;
+                    long until = now + (retryAfter >= 0 ? retryAfter : DEFAULT_PAUSE_NANOS);
+                    if (until - pausedUntil > 0) pausedUntil = until;
+                }
+                if (remainingHeader != null) {
+                    try {
+                        long remaining = Long.parseLong(remainingHeader.trim());
+                        tokens = Math.min(tokens, remaining);
+                        if (reset > nowMillis) {
+                            // Spread what is left of the quota over the rest of the window
+                            double seconds = (reset - nowMillis) / 1000.0;
+                            rate = Math.min(defaultRate, remaining / seconds);
+                            rateUntil = now + TimeUnit.MILLISECONDS.toNanos(reset - nowMillis);
+                            if (remaining == 0 && rateUntil - pausedUntil > 0) {
+                                pausedUntil = rateUntil;
+                            }
+                        }
+                    } catch (NumberFormatException ignored) {
+                        // Malformed header; keep the current pace
+                    }
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return throttledNow;
+        }
+
+        private void refill(long now) {
+            if (rateUntil != 0 && now - rateUntil >= 0) {
+                // The upstream's window has reset
+                rate = defaultRate;
+                rateUntil = 0;
+            }
+            tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * rate);
+            refilledAt = now;
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                refill(now);
+                stats.put("tokens", Math.floor(tokens * 100) / 100);
+                stats.put("requestsPerSecond", rate);
+                stats.put("pausedMs", Math.max(0, TimeUnit.NANOSECONDS.toMillis(pausedUntil - now)));
+                stats.put("calls", calls);
+                stats.put("paced", paced);
+                stats.put("pacedWaitMs", TimeUnit.NANOSECONDS.toMillis(waitedNanos));
+                stats.put("throttled", throttled);
+                stats.put("rejected", rejected);
+            } finally {
+                lock.unlock();
+            }
+            return stats;
+        }
+    }
+}
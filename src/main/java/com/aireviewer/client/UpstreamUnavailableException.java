@@ -0,0 +1,15 @@
+package com.aireviewer.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link OutboundGuard} when a call is not sent because the
+ * circuit of its host is open or its concurrency limit stayed exhausted.
+ * {@link org.springframework.web.client.RestTemplate} reports it wrapped in a
+ * {@link org.springframework.web.client.ResourceAccessException}.
+ */
+public class UpstreamUnavailableException extends IOException {
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -1,59 +1,122 @@
 package com.aireviewer.controller;
 
+import com.aireviewer.model.MergeRequestEvent;
+import com.aireviewer.service.EventDeduplicator;
+import com.aireviewer.service.ReviewCoalescer;
+import com.aireviewer.service.ReviewExecutor;
 import com.aireviewer.service.ReviewProcessor;
+import com.aireviewer.service.ReviewRejectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * REST controller that exposes endpoints for receiving webhooks from GitLab and
  * exposing health information. GitLab will send merge request events to the
- * configured webhook URL. The payload is forwarded to the {@link ReviewProcessor}.
+ * configured webhook URL. The payload is parsed on the request thread into a
+ * {@link MergeRequestEvent} and handed to the {@link ReviewCoalescer}, which collapses bursts per merge
+ * request and lets the {@link ReviewExecutor} run the {@link ReviewProcessor}
+ * asynchronously, so that GitLab receives its response without waiting for
+ * the review to finish.
  */
 @RestController
 public class GitLabWebhookController {
     private static final Logger log = LoggerFactory.getLogger(GitLabWebhookController.class);
+    private final ReviewCoalescer reviewCoalescer;
+    private static final String MERGE_REQUEST_HOOK = "Merge Request Hook";
+    private final ReviewExecutor reviewExecutor;
+    private final EventDeduplicator deduplicator;
     private final ReviewProcessor reviewProcessor;
 
-    public GitLabWebhookController(ReviewProcessor reviewProcessor) {
+    public GitLabWebhookController(ReviewCoalescer reviewCoalescer, ReviewExecutor reviewExecutor,
+                                   EventDeduplicator deduplicator, ReviewProcessor reviewProcessor) {
+        this.reviewCoalescer = reviewCoalescer;
+        this.reviewExecutor = reviewExecutor;
+        this.deduplicator = deduplicator;
         this.reviewProcessor = reviewProcessor;
     }
 
     /**
-     * Endpoint to handle GitLab webhook events for merge requests. This method
-     * accepts any JSON body and delegates processing to the {@link ReviewProcessor}.
+     * Endpoint to handle GitLab webhook events for merge requests. The payload
+     * is read by the {@link MergeRequestEventParser}, reviewable events are
+     * enqueued for the {@link ReviewProcessor} and 202 is answered right
+     * away. Other events are acknowledged without reading the rest of the
+     * payload; deliveries announced as another hook type in
+     * {@code X-Gitlab-Event} are not read at all. When the review queue, or
+     * the project's share of it, is full 429 is returned with a
+     * {@code Retry-After} estimate so that GitLab retries the delivery later;
+     * when the event cannot be journaled 503 asks for a later retry as well.
+     * Retried deliveries ({@code X-Gitlab-Event-UUID}) and events for a head
+     * commit that was already accepted are acknowledged without a review.
+     * Merging or closing a merge request drops what is kept about its reviews.
      *
-     * @param payload the webhook payload
+     * @param eventType the {@code X-Gitlab-Event} header, e.g. {@code Merge Request Hook}
+     * @param deliveryId the {@code X-Gitlab-Event-UUID} header identifying the delivery
+     * @param body the webhook payload
      * @return simple response indicating reception
      */
     @PostMapping(path = "/webhook/gitlab")
-    public ResponseEntity<String> handleWebhook(@RequestBody Map<String, Object> payload) {
+    public ResponseEntity<String> handleWebhook(@RequestHeader(value = "X-Gitlab-Event", required = false) String eventType,
+                                                @RequestHeader(value = "X-Gitlab-Event-UUID", required = false) String deliveryId,
+                                                InputStream body) {
         log.info("Webhook received");
-        // Validate GitLab event: only process merge_request open/update
+        if (eventType != null && !MERGE_REQUEST_HOOK.equals(eventType)) {
+            log.info("Ignoring webhook: {}", eventType);
+            return ResponseEntity.accepted().body("Ignored: not a merge_request event");
+        }
+        if (deduplicator.isDuplicate(deliveryId)) {
+            log.info("Ignoring duplicate delivery {}", deliveryId);
+            return ResponseEntity.accepted().body("Ignored: duplicate delivery");
+        }
+        MergeRequestEvent event;
         try {
-            Object kind = payload.get("object_kind");
-            if (!(kind instanceof String) || !"merge_request".equals(kind)) {
-                log.info("Ignoring webhook: object_kind is not merge_request");
-                return ResponseEntity.accepted().body("Ignored: not a merge_request event");
-            }
-            Object oa = payload.get("object_attributes");
-            String action = null;
-            if (oa instanceof Map<?,?> oaMap) {
-                Object act = ((Map<?,?>) oaMap).get("action");
-                if (act instanceof String s) action = s;
-            }
-            if (action == null || !(action.equals("open") || action.equals("update"))) {
-                log.info("Ignoring merge_request event with action={}", action);
-                return ResponseEntity.accepted().body("Ignored: unsupported MR action");
+            event = MergeRequestEventParser.parse(body);
+        } catch (IOException e) {
+            log.warn("Rejecting unreadable webhook payload: {}", e.getMessage());
+            return ResponseEntity.badRequest().body("Malformed payload");
+        }
+        if (event == null) {
+            log.info("Ignoring webhook: object_kind is not merge_request");
+            return ResponseEntity.accepted().body("Ignored: not a merge_request event");
+        }
+        if (event.isClosing() && event.key() != null) {
+            reviewProcessor.forget(event.key());
+            return ResponseEntity.accepted().body("Merge request closed");
+        }
+        if (!event.isReviewable()) {
+            log.info("Ignoring merge_request event with action={}", event.action());
+            return ResponseEntity.accepted().body("Ignored: unsupported MR action");
+        }
+        if (!deduplicator.claim(deliveryId, event)) {
+            log.info("Ignoring duplicate event for MR projectId={}, iid={} at {}",
+                    event.projectId(), event.mergeRequestIid(), event.headSha());
+            return ResponseEntity.accepted().body("Ignored: head commit already reviewed");
+        }
+        try {
+            // A review that does not complete lets GitLab's next delivery through again
+            reviewCoalescer.submit(event, () -> deduplicator.forget(deliveryId, event));
+        } catch (RejectedExecutionException e) {
+            deduplicator.forget(deliveryId, event);
+            log.warn("Rejecting webhook (queue depth={}): {}", reviewExecutor.getQueueDepth(), e.getMessage());
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS);
+            if (e instanceof ReviewRejectedException r) {
+                response.header(HttpHeaders.RETRY_AFTER, String.valueOf(r.getRetryAfterSeconds()));
             }
-        } catch (Exception e) {
-            log.warn("Failed to pre-validate webhook payload, proceeding cautiously: {}", e.getMessage());
+            return response.body("Review queue is full");
+        } catch (UncheckedIOException e) {
+            deduplicator.forget(deliveryId, event);
+            log.error("Rejecting webhook: intake journal write failed: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Intake journal unavailable");
         }
-        reviewProcessor.handleMergeRequestEvent(payload);
-        return ResponseEntity.ok("Webhook processed");
+        return ResponseEntity.accepted().body("Webhook accepted");
     }
 
     /**
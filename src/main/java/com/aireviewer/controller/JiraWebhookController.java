@@ -0,0 +1,50 @@
+package com.aireviewer.controller;
+
+import com.aireviewer.client.JiraIssueCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Optional endpoint for Jira webhooks. Configure Jira to send issue events
+ * (e.g. {@code jira:issue_updated}, {@code jira:issue_deleted},
+ * {@code comment_created}) here to drop the affected issue from the
+ * {@link JiraIssueCache} as soon as it changes instead of waiting for its
+ * entry to expire.
+ */
+@RestController
+public class JiraWebhookController {
+    private static final Logger log = LoggerFactory.getLogger(JiraWebhookController.class);
+    private final JiraIssueCache jiraCache;
+
+    public JiraWebhookController(JiraIssueCache jiraCache) {
+        this.jiraCache = jiraCache;
+    }
+
+    /**
+     * Evict the issue named in a Jira webhook payload.
+     *
+     * @param payload the webhook payload
+     * @return simple response indicating whether a cached entry was evicted
+     */
+    @PostMapping(path = "/webhook/jira")
+    public ResponseEntity<String> handleWebhook(@RequestBody Map<String, Object> payload) {
+        Object event = payload.get("webhookEvent");
+        String key = null;
+        if (payload.get("issue") instanceof Map<?, ?> issue && issue.get("key") instanceof String k) {
+            key = k;
+        }
+        if (key == null) {
+            log.info("Ignoring Jira webhook without issue key: event={}", event);
+            return ResponseEntity.ok("Ignored: no issue key");
+        }
+        boolean evicted = jiraCache.invalidate(key);
+        log.info("Jira webhook {} for {}: {}", event, key, evicted ? "evicted" : "not cached");
+        return ResponseEntity.ok(evicted ? "Evicted" : "Not cached");
+    }
+}
@@ -0,0 +1,165 @@
+package com.aireviewer.controller;
+
+import com.aireviewer.model.MergeRequestEvent;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a GitLab merge request webhook payload as a stream into a
+ * {@link MergeRequestEvent}. Only the handful of fields a review needs are
+ * read; everything else, in particular the large {@code changes},
+ * {@code labels} and {@code assignees} trees, is skipped without being
+ * built. Reading stops as soon as the event turns out to be irrelevant:
+ * right after {@code object_kind} for other event kinds, and right after
+ * {@code object_attributes} for actions that are not reviewed.
+ */
+public final class MergeRequestEventParser {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private MergeRequestEventParser() {
+    }
+
+    /**
+     * @param body the webhook payload
+     * @return the event, or {@code null} if the payload is not a merge request event
+     * @throws IOException if the payload cannot be read or is not a JSON object
+     */
+    public static MergeRequestEvent parse(InputStream body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Webhook payload is not a JSON object");
+            }
+            String kind = null;
+            Long projectId = null;
+            Long targetProjectId = null;
+            String author = null;
+            Attributes attributes = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "object_kind" -> {
+                        kind = parser.getValueAsString();
+                        if (!"merge_request".equals(kind)) {
+                            return null;
+                        }
+                    }
+                    case "project" -> projectId = value == JsonToken.START_OBJECT ? readId(parser) : skip(parser);
+                    case "user" -> author = value == JsonToken.START_OBJECT ? readName(parser) : skip(parser);
+                    case "object_attributes" -> {
+                        if (value != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        attributes = readAttributes(parser);
+                        targetProjectId = attributes.targetProjectId;
+                    }
+                    default -> parser.skipChildren();
+                }
+                // Everything after object_attributes only matters for events that get reviewed
+                if (kind != null && attributes != null && !isReviewed(attributes.action)) {
+                    break;
+                }
+            }
+            if (!"merge_request".equals(kind)) {
+                return null;
+            }
+            if (attributes == null) {
+                attributes = new Attributes();
+            }
+            return new MergeRequestEvent(projectId != null ? projectId : targetProjectId, attributes.iid,
+                    attributes.action, attributes.title, attributes.description, attributes.sourceBranch,
+                    attributes.headSha, author);
+        }
+    }
+
+    private static boolean isReviewed(String action) {
+        return "open".equals(action) || "update".equals(action);
+    }
+
+    private static Attributes readAttributes(JsonParser parser) throws IOException {
+        Attributes attributes = new Attributes();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "action" -> attributes.action = text(parser, value);
+                case "iid" -> attributes.iid = number(parser, value);
+                case "target_project_id" -> attributes.targetProjectId = number(parser, value);
+                case "title" -> attributes.title = text(parser, value);
+                case "description" -> attributes.description = text(parser, value);
+                case "source_branch" -> attributes.sourceBranch = text(parser, value);
+                case "last_commit" -> attributes.headSha = value == JsonToken.START_OBJECT ? readString(parser, "id") : skip(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return attributes;
+    }
+
+    private static Long readId(JsonParser parser) throws IOException {
+        Long id = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("id".equals(field)) {
+                id = number(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return id;
+    }
+
+    private static String readName(JsonParser parser) throws IOException {
+        return readString(parser, "name");
+    }
+
+    private static String readString(JsonParser parser, String name) throws IOException {
+        String result = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (name.equals(field)) {
+                result = text(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private static String text(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static Long number(JsonParser parser, JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        parser.skipChildren();
+        return null;
+    }
+
+    private static <T> T skip(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        return null;
+    }
+
+    private static final class Attributes {
+        private String action;
+        private Long iid;
+        private Long targetProjectId;
+        private String title;
+        private String description;
+        private String sourceBranch;
+        private String headSha;
+    }
+}
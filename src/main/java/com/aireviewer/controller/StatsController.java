@@ -0,0 +1,33 @@
+package com.aireviewer.controller;
+
+import com.aireviewer.metrics.StatsSource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the runtime counters of every {@link StatsSource} bean as a single
+ * JSON document, e.g. the review queue depth. Intended for dashboards and
+ * ad-hoc troubleshooting.
+ */
+@RestController
+public class StatsController {
+    private final List<StatsSource> sources;
+
+    public StatsController(List<StatsSource> sources) {
+        this.sources = sources;
+    }
+
+    @GetMapping(path = "/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (StatsSource source : sources) {
+            result.put(source.statsName(), source.stats());
+        }
+        return ResponseEntity.ok(result);
+    }
+}
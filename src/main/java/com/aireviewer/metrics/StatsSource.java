@@ -0,0 +1,20 @@
+package com.aireviewer.metrics;
+
+import java.util.Map;
+
+/**
+ * Implemented by components that want to publish runtime counters (queue
+ * depth, cache hits, etc.) on the {@code /stats} endpoint. Implementations
+ * must be cheap and thread-safe as they are called on the request thread.
+ */
+public interface StatsSource {
+    /**
+     * @return section name under which the values are published
+     */
+    String statsName();
+
+    /**
+     * @return a snapshot of the current values; never {@code null}
+     */
+    Map<String, Object> stats();
+}
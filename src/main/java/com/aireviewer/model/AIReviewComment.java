@@ -1,8 +1,14 @@
 package com.aireviewer.model;
 
 import com.aireviewer.i18n.Messages;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents the combined feedback from all AI agents for a given merge request.
@@ -16,6 +22,8 @@ public class AIReviewComment {
     private String doneWell;
     private final List<AIReviewIssue> issues = new ArrayList<>();
     private final List<String> testAdvice = new ArrayList<>();
+    // Parallel to testAdvice: the file each piece of advice is about, or null
+    private final List<String> testAdviceFiles = new ArrayList<>();
 
     public void setJiraContext(JiraContext jiraContext) {
         this.jiraContext = jiraContext;
@@ -30,7 +38,17 @@ public class AIReviewComment {
     }
 
     public void addTestAdvice(String advice) {
+        addTestAdvice(advice, null);
+    }
+
+    /**
+     * @param advice the advice text
+     * @param file the changed file the advice is about, {@code null} for
+     *             advice about the merge request as a whole
+     */
+    public void addTestAdvice(String advice, String file) {
         this.testAdvice.add(advice);
+        this.testAdviceFiles.add(file);
     }
 
     public JiraContext getJiraContext() {
@@ -49,6 +67,80 @@ public class AIReviewComment {
         return testAdvice;
     }
 
+    /**
+     * Append the findings of another (partial) comment to this one. Issues and
+     * test advice are appended in order; the Jira context and the "done well"
+     * remark are taken from {@code other} when it sets them.
+     *
+     * @param other the partial comment produced by a single agent
+     */
+    public void mergeFrom(AIReviewComment other) {
+        mergeContextFrom(other);
+        this.issues.addAll(other.issues);
+        this.testAdvice.addAll(other.testAdvice);
+        this.testAdviceFiles.addAll(other.testAdviceFiles);
+    }
+
+    /**
+     * Combine this review with the review of a later push that only covered
+     * the files changed by that push. Findings about the touched files are
+     * replaced by those of {@code delta}; findings about other files are kept
+     * from this review. So are findings about the merge request as a whole
+     * (without a file), e.g. on the size of its diff: {@code delta} only saw
+     * the diff of the push, so its own are dropped.
+     * The Jira context and the "done well" remark are taken from
+     * {@code delta} when it sets them. Neither comment is modified.
+     *
+     * @param delta the review of the files changed by the latest push
+     * @param touchedFiles every path (old and new) touched by the push
+     * @return the combined review
+     */
+    public AIReviewComment withDelta(AIReviewComment delta, Collection<String> touchedFiles) {
+        Set<String> touched = new HashSet<>(touchedFiles);
+        AIReviewComment merged = new AIReviewComment();
+        merged.mergeContextFrom(this);
+        merged.mergeContextFrom(delta);
+        for (AIReviewIssue issue : issues) {
+            if (issue.getFile() == null || !touched.contains(issue.getFile())) {
+                merged.issues.add(issue);
+            }
+        }
+        for (AIReviewIssue issue : delta.issues) {
+            if (issue.getFile() != null) {
+                merged.issues.add(issue);
+            }
+        }
+        for (int i = 0; i < testAdvice.size(); i++) {
+            String file = testAdviceFiles.get(i);
+            if (file == null || !touched.contains(file)) {
+                merged.addTestAdvice(testAdvice.get(i), file);
+            }
+        }
+        for (int i = 0; i < delta.testAdvice.size(); i++) {
+            String file = delta.testAdviceFiles.get(i);
+            if (file != null) {
+                merged.addTestAdvice(delta.testAdvice.get(i), file);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Copy only the Jira context and the "done well" remark from another
+     * comment, when it sets them. Used to hand the output of an upstream
+     * agent to the agents that depend on it.
+     *
+     * @param other the comment to copy from
+     */
+    public void mergeContextFrom(AIReviewComment other) {
+        if (other.jiraContext != null) {
+            this.jiraContext = other.jiraContext;
+        }
+        if (other.doneWell != null) {
+            this.doneWell = other.doneWell;
+        }
+    }
+
     /**
      * Serialises the review comment into a Markdown-formatted string matching
      * the specification. Each section is clearly labelled to improve
@@ -58,20 +150,113 @@ public class AIReviewComment {
      */
     public String toMarkdown() {
         StringBuilder sb = new StringBuilder();
+        try {
+            writeMarkdown(sb, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the Markdown of {@link #toMarkdown()} to {@code out} without
+     * building it in memory first, in at most {@code maxChars} characters.
+     * When the full review is longer, low-priority content is collapsed into
+     * a "more items omitted" line until it fits: first the unit test advice,
+     * then the Jira description, comments and related issues, then the issues
+     * from the last one backwards. As a last resort the output is cut off.
+     * The sizes are measured by a rendering pass that only counts characters.
+     *
+     * @param out where to write the Markdown
+     * @param maxChars the maximum number of characters to write
+     * @throws IOException if {@code out} fails
+     */
+    public void writeMarkdown(Appendable out, int maxChars) throws IOException {
+        layout(maxChars, null).writeTo(out);
+    }
+
+    /**
+     * Decide what {@link #writeMarkdown(Appendable, int)} writes, so that it
+     * can be written more than once without measuring it again. The pass that
+     * measures the full review also writes it to {@code full}, if given, e.g.
+     * to hash the review in the same pass; only reviews over the limit are
+     * rendered again to measure the collapsed variants.
+     *
+     * @param maxChars the maximum number of characters to write
+     * @param full receives the full, uncollapsed review; may be {@code null}
+     * @return the layout to write
+     * @throws IOException if {@code full} fails
+     */
+    public Layout layout(int maxChars, Appendable full) throws IOException {
+        Plan plan = new Plan(issues.size(), testAdvice.size(), true);
+        CountingAppendable counter = new CountingAppendable(full);
+        render(counter, plan);
+        if (counter.count <= maxChars) {
+            return new Layout(plan, maxChars);
+        }
+        plan = new Plan(issues.size(), 0, true);
+        if (length(plan) > maxChars) {
+            plan = new Plan(issues.size(), 0, false);
+        }
+        if (length(plan) > maxChars) {
+            // Largest number of issues that still fits
+            int low = 0;
+            int high = issues.size();
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (length(new Plan(mid, 0, false)) <= maxChars) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            plan = new Plan(low, 0, false);
+        }
+        return new Layout(plan, maxChars);
+    }
+
+    private long length(Plan plan) throws IOException {
+        CountingAppendable counter = new CountingAppendable(null);
+        render(counter, plan);
+        return counter.count;
+    }
+
+    private void render(Appendable sb, Plan plan) throws IOException {
         sb.append(Messages.get("heading.summary")).append("\n\n");
         if (jiraContext != null) {
             sb.append(Messages.get("section.jira")).append("\n");
             sb.append(Messages.get("jira.key", jiraContext.getKey())).append("\n");
             sb.append(Messages.get("jira.summary", jiraContext.getSummary())).append("\n");
+            int omitted = 0;
             if (jiraContext.getDescription() != null && !jiraContext.getDescription().isEmpty()) {
-                sb.append(Messages.get("jira.description", jiraContext.getDescription())).append("\n");
+                if (plan.jiraDetails()) {
+                    sb.append(Messages.get("jira.description", jiraContext.getDescription())).append("\n");
+                } else {
+                    omitted++;
+                }
             }
             if (jiraContext.getComments() != null && !jiraContext.getComments().isEmpty()) {
-                sb.append(Messages.get("jira.comments")).append("\n");
-                for (String c : jiraContext.getComments()) {
-                    sb.append("  - ").append(c).append("\n");
+                if (plan.jiraDetails()) {
+                    sb.append(Messages.get("jira.comments")).append("\n");
+                    for (String c : jiraContext.getComments()) {
+                        sb.append("  - ").append(c).append("\n");
+                    }
+                } else {
+                    omitted += jiraContext.getComments().size();
                 }
             }
+            if (jiraContext.getRelatedIssues() != null && !jiraContext.getRelatedIssues().isEmpty()) {
+                if (plan.jiraDetails()) {
+                    List<String> related = new ArrayList<>();
+                    for (JiraContext r : jiraContext.getRelatedIssues()) {
+                        related.add(r.getSummary() != null ? r.getKey() + " (" + r.getSummary() + ")" : r.getKey());
+                    }
+                    sb.append(Messages.get("jira.related", String.join(", ", related))).append("\n");
+                } else {
+                    omitted += jiraContext.getRelatedIssues().size();
+                }
+            }
+            appendOmitted(sb, omitted);
             sb.append("\n");
         }
         if (doneWell != null && !doneWell.isBlank()) {
@@ -80,26 +265,27 @@ public class AIReviewComment {
         }
         if (!issues.isEmpty()) {
             sb.append(Messages.get("section.issues")).append("\n");
-            int i = 1;
-            for (AIReviewIssue issue : issues) {
-                sb.append(i++).append(". ").append(issue.getDescription()).append("\n");
+            for (int i = 0; i < plan.issues(); i++) {
+                AIReviewIssue issue = issues.get(i);
+                sb.append(String.valueOf(i + 1)).append(". ").append(issue.getDescription()).append("\n");
                 sb.append(Messages.get("issues.recommendation", issue.getRecommendation())).append("\n");
                 sb.append(Messages.get("issues.source", issue.getSource())).append("\n");
             }
+            appendOmitted(sb, issues.size() - plan.issues());
             sb.append("\n");
         }
         if (!testAdvice.isEmpty()) {
             sb.append(Messages.get("section.testAdvice")).append("\n");
-            int i = 1;
-            for (String advice : testAdvice) {
-                sb.append(i++).append(". ").append(advice).append("\n");
+            for (int i = 0; i < plan.testAdvice(); i++) {
+                sb.append(String.valueOf(i + 1)).append(". ").append(testAdvice.get(i)).append("\n");
             }
+            appendOmitted(sb, testAdvice.size() - plan.testAdvice());
             sb.append("\n");
         }
         // Global source note (per spec: final 'Джерело' section)
         List<String> uniqueSources = new ArrayList<>();
-        for (AIReviewIssue issue : issues) {
-            String src = issue.getSource();
+        for (int i = 0; i < plan.issues(); i++) {
+            String src = issues.get(i).getSource();
             if (src != null && !src.isBlank() && !uniqueSources.contains(src)) {
                 uniqueSources.add(src);
             }
@@ -107,6 +293,112 @@ public class AIReviewComment {
         if (!uniqueSources.isEmpty()) {
             sb.append(Messages.get("section.source")).append(" ").append(String.join(", ", uniqueSources)).append("\n");
         }
-        return sb.toString();
     }
-}
\ No newline at end of file
+
+    private static void appendOmitted(Appendable sb, int omitted) throws IOException {
+        if (omitted > 0) {
+            sb.append(Messages.get("section.omitted", omitted)).append("\n");
+        }
+    }
+
+    /**
+     * What {@link #render} includes: the first {@code issues} issues, the
+     * first {@code testAdvice} pieces of advice and, if {@code jiraDetails},
+     * the Jira description, comments and related issues.
+     */
+    private record Plan(int issues, int testAdvice, boolean jiraDetails) {
+    }
+
+    /**
+     * What of a review is written in at most a given number of characters,
+     * see {@link #layout(int, Appendable)}.
+     */
+    public final class Layout {
+        private final Plan plan;
+        private final int maxChars;
+
+        private Layout(Plan plan, int maxChars) {
+            this.plan = plan;
+            this.maxChars = maxChars;
+        }
+
+        /**
+         * @param out where to write the Markdown
+         * @throws IOException if {@code out} fails
+         */
+        public void writeTo(Appendable out) throws IOException {
+            render(new LimitedAppendable(out, maxChars), plan);
+        }
+    }
+
+    /**
+     * Counts characters, passing them on to {@code out} if there is one.
+     */
+    private static final class CountingAppendable implements Appendable {
+        private final Appendable out;
+        private long count;
+
+        private CountingAppendable(Appendable out) {
+            this.out = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            count += csq == null ? 4 : csq.length();
+            if (out != null) out.append(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            count += end - start;
+            if (out != null) out.append(csq, start, end);
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            count++;
+            if (out != null) out.append(c);
+            return this;
+        }
+    }
+
+    /**
+     * Drops everything after the first {@code remaining} characters.
+     */
+    private static final class LimitedAppendable implements Appendable {
+        private final Appendable out;
+        private long remaining;
+
+        private LimitedAppendable(Appendable out, long remaining) {
+            this.out = out;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            CharSequence value = csq == null ? "null" : csq;
+            return append(value, 0, value.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            int n = (int) Math.min(end - start, Math.max(0, remaining));
+            if (n > 0) {
+                out.append(csq, start, start + n);
+                remaining -= n;
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            if (remaining > 0) {
+                out.append(c);
+                remaining--;
+            }
+            return this;
+        }
+    }
+}
@@ -4,16 +4,24 @@ package com.aireviewer.model;
  * Represents a single issue detected by one of the agents. Each issue has a description,
  * a recommended fix and the name of the agent that reported it. This structure
  * allows the Aggregator to provide transparent provenance for the user.
+ * Issues raised about a specific changed file also record its path, which
+ * lets an incremental review replace them when that file changes again.
  */
 public class AIReviewIssue {
     private final String description;
     private final String recommendation;
     private final String source;
+    private final String file;
 
     public AIReviewIssue(String description, String recommendation, String source) {
+        this(description, recommendation, source, null);
+    }
+
+    public AIReviewIssue(String description, String recommendation, String source, String file) {
         this.description = description;
         this.recommendation = recommendation;
         this.source = source;
+        this.file = file;
     }
 
     public String getDescription() {
@@ -27,4 +35,12 @@ public class AIReviewIssue {
     public String getSource() {
         return source;
     }
+
+    /**
+     * @return the changed file the issue is about, or {@code null} for
+     *         findings about the merge request as a whole
+     */
+    public String getFile() {
+        return file;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.aireviewer.model;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The changes between two commits of a merge request's source branch, as
+ * reported by GitLab's repository compare API.
+ *
+ * @param fastForward {@code true} if the newer commit descends from the older
+ *                    one, i.e. the branch was pushed to and not rewritten
+ * @param changedFiles the paths of the changed files after the change
+ * @param touchedPaths every path touched, including old paths of renamed or
+ *                     deleted files
+ * @param diff the per-file diffs of the changes
+ */
+public record CompareResult(boolean fastForward, List<String> changedFiles, Set<String> touchedPaths, DiffModel diff) {
+
+    /**
+     * @return a result for two identical commits
+     */
+    public static CompareResult unchanged() {
+        return new CompareResult(true, List.of(), Set.of(), DiffModel.ofFiles(List.of()));
+    }
+}
@@ -0,0 +1,415 @@
+package com.aireviewer.model;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsed, read-only view of a unified diff, shared by all agents of a review.
+ *
+ * The model never copies the diff text. It keeps a reference to the source
+ * and an index of line start offsets, so individual lines are exposed as
+ * {@link CharSequence} views. On top of that index it records per-file
+ * sections, their hunks and added/removed line counts. Instances are
+ * immutable and therefore safe to read from several agents concurrently.
+ */
+public final class DiffModel {
+    private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@");
+    private static final Pattern GIT_HEADER = Pattern.compile("^diff --git a/(.*) b/(.*)$");
+
+    private final LineIndex lines;
+    private final List<FileDiff> files;
+    private final int addedLines;
+    private final int removedLines;
+
+    private DiffModel(LineIndex lines, List<FileDiff> files) {
+        this.lines = lines;
+        this.files = Collections.unmodifiableList(files);
+        int added = 0;
+        int removed = 0;
+        for (FileDiff file : files) {
+            added += file.addedLines;
+            removed += file.removedLines;
+        }
+        this.addedLines = added;
+        this.removedLines = removed;
+    }
+
+    /**
+     * Index a unified diff (as produced by {@code git diff}). Text that does
+     * not look like a diff is still indexed by line, it simply yields no files.
+     *
+     * @param diff the diff text, must not be {@code null}
+     * @return the parsed model
+     */
+    public static DiffModel parse(CharSequence diff) {
+        LineIndex index = new LineIndex(diff);
+        List<FileDiff> files = new ArrayList<>();
+        int fileStart = -1;
+        String oldPath = null;
+        String newPath = null;
+        boolean headerPending = false;
+        int remainingOld = 0;
+        int remainingNew = 0;
+        for (int i = 0; i < index.count; i++) {
+            CharSequence line = index.line(i);
+            if (remainingOld > 0 || remainingNew > 0) {
+                // Inside a hunk: lines are content even if they look like headers
+                char c = line.length() > 0 ? line.charAt(0) : ' ';
+                if (c == '+') {
+                    remainingNew--;
+                } else if (c == '-') {
+                    remainingOld--;
+                } else if (c != '\\') {
+                    remainingOld--;
+                    remainingNew--;
+                }
+                continue;
+            }
+            boolean gitHeader = startsWith(line, "diff --git ");
+            // Without git headers a file section starts at a "--- " line directly followed by "+++ "
+            boolean plainHeader = !gitHeader && !headerPending && startsWith(line, "--- ")
+                    && i + 1 < index.count && startsWith(index.line(i + 1), "+++ ");
+            if (gitHeader || plainHeader) {
+                if (fileStart >= 0) {
+                    files.add(new FileDiff(oldPath, newPath, index, fileStart, i));
+                }
+                fileStart = i;
+                oldPath = null;
+                newPath = null;
+                headerPending = true;
+                if (gitHeader) {
+                    Matcher m = GIT_HEADER.matcher(line);
+                    if (m.find()) {
+                        oldPath = m.group(1);
+                        newPath = m.group(2);
+                    }
+                }
+            }
+            if (fileStart < 0) {
+                continue;
+            }
+            if (startsWith(line, "--- ")) {
+                String path = stripPrefix(line.subSequence(4, line.length()).toString(), "a/");
+                oldPath = "/dev/null".equals(path) ? null : path;
+            } else if (startsWith(line, "+++ ")) {
+                String path = stripPrefix(line.subSequence(4, line.length()).toString(), "b/");
+                newPath = "/dev/null".equals(path) ? null : path;
+            } else if (startsWith(line, "@@ ")) {
+                Matcher m = HUNK_HEADER.matcher(line);
+                if (m.find()) {
+                    headerPending = false;
+                    remainingOld = FileDiff.parseInt(m.group(2), 1);
+                    remainingNew = FileDiff.parseInt(m.group(4), 1);
+                }
+            }
+        }
+        if (fileStart >= 0) {
+            files.add(new FileDiff(oldPath, newPath, index, fileStart, index.count));
+        }
+        return new DiffModel(index, files);
+    }
+
+    /**
+     * Build a model from per-file diffs that were obtained separately, e.g.
+     * from an API returning one diff per changed file.
+     *
+     * @param files the per-file diffs
+     * @return the combined model
+     */
+    public static DiffModel ofFiles(List<FileDiff> files) {
+        return new DiffModel(null, new ArrayList<>(files));
+    }
+
+    /**
+     * Number of lines in the diff, counted like {@code diff.split("\n").length}
+     * (trailing empty lines are not counted, an empty diff counts as one line).
+     *
+     * @return the line count
+     */
+    public int getLineCount() {
+        if (lines != null) {
+            return lines.count;
+        }
+        int count = 0;
+        for (FileDiff file : files) {
+            count += file.getLineCount();
+        }
+        return count;
+    }
+
+    /**
+     * @param i zero-based line number
+     * @return the line without its terminator, as a view on the source
+     */
+    public CharSequence line(int i) {
+        if (lines != null) {
+            return lines.line(i);
+        }
+        int remaining = i;
+        for (FileDiff file : files) {
+            if (remaining < file.getLineCount()) {
+                return file.line(remaining);
+            }
+            remaining -= file.getLineCount();
+        }
+        throw new IndexOutOfBoundsException("Line " + i + " out of range");
+    }
+
+    public List<FileDiff> getFiles() {
+        return files;
+    }
+
+    public int getAddedLines() {
+        return addedLines;
+    }
+
+    public int getRemovedLines() {
+        return removedLines;
+    }
+
+    private static boolean startsWith(CharSequence s, String prefix) {
+        if (s.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (s.charAt(i) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static String stripPrefix(String path, String prefix) {
+        int tab = path.indexOf('\t');
+        if (tab >= 0) path = path.substring(0, tab);
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+    }
+
+    /**
+     * The section of a diff that belongs to one file.
+     */
+    public static final class FileDiff {
+        private final String oldPath;
+        private final String newPath;
+        private final LineIndex lines;
+        private final int firstLine;
+        private final int endLine;
+        private final List<Hunk> hunks;
+        private final int addedLines;
+        private final int removedLines;
+
+        private FileDiff(String oldPath, String newPath, LineIndex lines, int firstLine, int endLine) {
+            this.oldPath = oldPath;
+            this.newPath = newPath;
+            this.lines = lines;
+            this.firstLine = firstLine;
+            this.endLine = endLine;
+            List<Hunk> parsed = new ArrayList<>();
+            int added = 0;
+            int removed = 0;
+            Hunk current = null;
+            for (int i = firstLine; i < endLine; i++) {
+                CharSequence line = lines.line(i);
+                if (startsWith(line, "@@ ")) {
+                    Matcher m = HUNK_HEADER.matcher(line);
+                    if (m.find()) {
+                        if (current != null) parsed.add(current.close(i - firstLine));
+                        current = new Hunk(parseInt(m.group(1), 0), parseInt(m.group(2), 1),
+                                parseInt(m.group(3), 0), parseInt(m.group(4), 1), i - firstLine);
+                        continue;
+                    }
+                }
+                if (current == null || line.length() == 0) continue;
+                char c = line.charAt(0);
+                if (c == '+') {
+                    added++;
+                    current.added++;
+                } else if (c == '-') {
+                    removed++;
+                    current.removed++;
+                }
+            }
+            if (current != null) parsed.add(current.close(endLine - firstLine));
+            this.hunks = Collections.unmodifiableList(parsed);
+            this.addedLines = added;
+            this.removedLines = removed;
+        }
+
+        /**
+         * Parse the diff of a single file whose paths are known up front, e.g.
+         * the {@code diff} field GitLab returns per changed file.
+         *
+         * @param oldPath path before the change, may be {@code null} for new files
+         * @param newPath path after the change, may be {@code null} for deleted files
+         * @param diff the hunks of this file
+         * @return the parsed file section
+         */
+        public static FileDiff of(String oldPath, String newPath, CharSequence diff) {
+            LineIndex index = new LineIndex(diff);
+            return new FileDiff(oldPath, newPath, index, 0, index.count);
+        }
+
+        public String getOldPath() {
+            return oldPath;
+        }
+
+        public String getNewPath() {
+            return newPath;
+        }
+
+        /**
+         * @return the new path, or the old one if the file was deleted
+         */
+        public String getPath() {
+            return newPath != null ? newPath : oldPath;
+        }
+
+        public List<Hunk> getHunks() {
+            return hunks;
+        }
+
+        public int getAddedLines() {
+            return addedLines;
+        }
+
+        public int getRemovedLines() {
+            return removedLines;
+        }
+
+        public int getLineCount() {
+            return endLine - firstLine;
+        }
+
+        /**
+         * @param i zero-based line number relative to the start of this file's section
+         * @return the line as a view on the source
+         */
+        public CharSequence line(int i) {
+            if (i < 0 || i >= getLineCount()) {
+                throw new IndexOutOfBoundsException("Line " + i + " out of range");
+            }
+            return lines.line(firstLine + i);
+        }
+
+        private static int parseInt(String s, int fallback) {
+            return s != null ? Integer.parseInt(s) : fallback;
+        }
+    }
+
+    /**
+     * One {@code @@ -a,b +c,d @@} block of a file diff. Line numbers refer to
+     * the lines of the owning {@link FileDiff}.
+     */
+    public static final class Hunk {
+        private final int oldStart;
+        private final int oldLines;
+        private final int newStart;
+        private final int newLines;
+        private final int headerLine;
+        private int endLine;
+        private int added;
+        private int removed;
+
+        private Hunk(int oldStart, int oldLines, int newStart, int newLines, int headerLine) {
+            this.oldStart = oldStart;
+            this.oldLines = oldLines;
+            this.newStart = newStart;
+            this.newLines = newLines;
+            this.headerLine = headerLine;
+        }
+
+        private Hunk close(int endLine) {
+            this.endLine = endLine;
+            return this;
+        }
+
+        public int getOldStart() {
+            return oldStart;
+        }
+
+        public int getOldLines() {
+            return oldLines;
+        }
+
+        public int getNewStart() {
+            return newStart;
+        }
+
+        public int getNewLines() {
+            return newLines;
+        }
+
+        public int getHeaderLine() {
+            return headerLine;
+        }
+
+        /**
+         * @return index of the first line after this hunk
+         */
+        public int getEndLine() {
+            return endLine;
+        }
+
+        public int getAddedLines() {
+            return added;
+        }
+
+        public int getRemovedLines() {
+            return removed;
+        }
+    }
+
+    /**
+     * Offsets of the line starts within a source text.
+     */
+    private static final class LineIndex {
+        private final CharSequence source;
+        private final int[] starts;
+        private final int count;
+
+        private LineIndex(CharSequence source) {
+            this.source = source;
+            int length = source.length();
+            int lastContent = length - 1;
+            while (lastContent >= 0 && source.charAt(lastContent) == '\n') {
+                lastContent--;
+            }
+            if (length == 0) {
+                // "".split("\n") yields a single empty line
+                this.starts = new int[]{0};
+                this.count = 1;
+                return;
+            }
+            int[] offsets = new int[16];
+            int n = 0;
+            if (lastContent >= 0) {
+                offsets[n++] = 0;
+                for (int i = 0; i < lastContent; i++) {
+                    if (source.charAt(i) == '\n') {
+                        if (n == offsets.length) offsets = Arrays.copyOf(offsets, n * 2);
+                        offsets[n++] = i + 1;
+                    }
+                }
+            }
+            this.starts = offsets;
+            this.count = n;
+        }
+
+        private CharSequence line(int i) {
+            if (i < 0 || i >= count) {
+                throw new IndexOutOfBoundsException("Line " + i + " out of range");
+            }
+            int start = starts[i];
+            int end = i + 1 < count ? starts[i + 1] - 1 : lineEnd(start);
+            return CharBuffer.wrap(source, start, end);
+        }
+
+        private int lineEnd(int start) {
+            int length = source.length();
+            int i = start;
+            while (i < length && source.charAt(i) != '\n') i++;
+            return i;
+        }
+    }
+}
@@ -8,6 +8,9 @@ import java.util.List;
  * into the review. Only a subset of the fields available from the Jira API
  * are captured here to keep the MVP minimal. Should your needs grow you can
  * extend this class accordingly.
+ *
+ * When a merge request references several issues, the first one is the
+ * primary context and the others are attached as related issues.
  */
 public class JiraContext {
     private final String key;
@@ -15,14 +18,21 @@ public class JiraContext {
     private final String description;
     private final String issueType;
     private final List<String> comments;
+    private final List<JiraContext> relatedIssues;
 
     public JiraContext(String key, String summary, String description,
                        String issueType, List<String> comments) {
+        this(key, summary, description, issueType, comments, List.of());
+    }
+
+    public JiraContext(String key, String summary, String description,
+                       String issueType, List<String> comments, List<JiraContext> relatedIssues) {
         this.key = key;
         this.summary = summary;
         this.description = description;
         this.issueType = issueType;
         this.comments = comments;
+        this.relatedIssues = relatedIssues;
     }
 
     public String getKey() {
@@ -44,4 +54,19 @@ public class JiraContext {
     public List<String> getComments() {
         return comments;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return further issues referenced by the merge request, never {@code null}
+     */
+    public List<JiraContext> getRelatedIssues() {
+        return relatedIssues;
+    }
+
+    /**
+     * @param related the further issues referenced by the merge request
+     * @return a copy of this context with the given related issues
+     */
+    public JiraContext withRelatedIssues(List<JiraContext> related) {
+        return new JiraContext(key, summary, description, issueType, comments, List.copyOf(related));
+    }
+}
@@ -1,6 +1,10 @@
 package com.aireviewer.model;
 
+import com.aireviewer.rules.PathMatches;
+import com.aireviewer.rules.RuleSet;
+
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents a simplified view of a GitLab merge request for use within the agent pipeline.
@@ -8,6 +12,14 @@ import java.util.List;
  * This context contains only the information relevant for analysis. In a real implementation
  * you would enrich this class with full diff information and other metadata pulled from
  * GitLab. For the purposes of the MVP the fields below are sufficient.
+ *
+ * The diff is either supplied as a ready {@link DiffModel} (as fetched file
+ * by file from GitLab) or as unified diff text, which is parsed lazily into a
+ * model the first time an agent asks for it; the model is then shared by all
+ * agents of the review. The same applies to the classification of the
+ * changed file paths. The context also pins the {@link RuleSet} the review
+ * runs with, so a rule catalog reload in the middle of a review does not
+ * affect it.
  */
 public class MergeRequestContext {
 
@@ -18,10 +30,20 @@ public class MergeRequestContext {
     private final String description;
     private final List<String> changedFiles;
     private final String diff;
+    private final RuleSet ruleSet;
+    private final ReentrantLock lazyInitLock = new ReentrantLock();
+    private volatile DiffModel diffModel;
+    private volatile PathMatches pathMatches;
 
     public MergeRequestContext(Long projectId, Long mergeRequestIid, String author,
                                String title, String description,
                                List<String> changedFiles, String diff) {
+        this(projectId, mergeRequestIid, author, title, description, changedFiles, diff, RuleSet.defaults());
+    }
+
+    public MergeRequestContext(Long projectId, Long mergeRequestIid, String author,
+                               String title, String description,
+                               List<String> changedFiles, String diff, RuleSet ruleSet) {
         this.projectId = projectId;
         this.mergeRequestIid = mergeRequestIid;
         this.author = author;
@@ -29,6 +51,14 @@ public class MergeRequestContext {
         this.description = description;
         this.changedFiles = changedFiles;
         this.diff = diff;
+        this.ruleSet = ruleSet;
+    }
+
+    public MergeRequestContext(Long projectId, Long mergeRequestIid, String author,
+                               String title, String description,
+                               List<String> changedFiles, DiffModel diffModel, RuleSet ruleSet) {
+        this(projectId, mergeRequestIid, author, title, description, changedFiles, (String) null, ruleSet);
+        this.diffModel = diffModel;
     }
 
     public Long getProjectId() {
@@ -55,7 +85,62 @@ public class MergeRequestContext {
         return changedFiles;
     }
 
+    /**
+     * @return the unified diff text, or {@code null} if the context was
+     *         created from a {@link DiffModel} or has no diff
+     */
     public String getDiff() {
         return diff;
     }
-}
\ No newline at end of file
+
+    public RuleSet getRuleSet() {
+        return ruleSet;
+    }
+
+    /**
+     * The diff model supplied at construction, or the parsed view of
+     * {@link #getDiff()}, built once per context and shared between agents
+     * (also when they run in parallel).
+     *
+     * @return the diff model, or {@code null} if the context has no diff
+     */
+    public DiffModel getDiffModel() {
+        DiffModel model = diffModel;
+        if (model == null && diff != null) {
+            lazyInitLock.lock();
+            try {
+                model = diffModel;
+                if (model == null) {
+                    model = DiffModel.parse(diff);
+                    diffModel = model;
+                }
+            } finally {
+                lazyInitLock.unlock();
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Changed files classified against the path rules of {@link #getRuleSet()} in a single pass,
+     * computed once per context and shared between agents.
+     *
+     * @return the matches per changed file
+     */
+    public PathMatches getPathMatches() {
+        PathMatches matches = pathMatches;
+        if (matches == null) {
+            lazyInitLock.lock();
+            try {
+                matches = pathMatches;
+                if (matches == null) {
+                    matches = ruleSet.getPathEngine().classify(changedFiles);
+                    pathMatches = matches;
+                }
+            } finally {
+                lazyInitLock.unlock();
+            }
+        }
+        return matches;
+    }
+}
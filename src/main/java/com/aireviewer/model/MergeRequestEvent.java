@@ -0,0 +1,40 @@
+package com.aireviewer.model;
+
+/**
+ * The parts of a GitLab merge request webhook that a review needs. Built by
+ * {@code MergeRequestEventParser}; every field may be {@code null} when the
+ * payload does not contain it.
+ *
+ * @param projectId the GitLab project id ({@code project.id}, or the target project id)
+ * @param mergeRequestIid the internal ID of the merge request
+ * @param action the MR action, e.g. {@code open}, {@code update}, {@code merge}
+ * @param title the MR title
+ * @param description the MR description
+ * @param sourceBranch the source branch name
+ * @param headSha the head commit of the source branch ({@code last_commit.id})
+ * @param author the name of the user who triggered the event
+ */
+public record MergeRequestEvent(Long projectId, Long mergeRequestIid, String action, String title,
+                                String description, String sourceBranch, String headSha, String author) {
+
+    /**
+     * @return {@code true} for the actions that trigger a review ({@code open}, {@code update})
+     */
+    public boolean isReviewable() {
+        return "open".equals(action) || "update".equals(action);
+    }
+
+    /**
+     * @return {@code true} for the actions that end a merge request ({@code merge}, {@code close})
+     */
+    public boolean isClosing() {
+        return "merge".equals(action) || "close".equals(action);
+    }
+
+    /**
+     * @return the merge request, or {@code null} if the project id or iid is missing
+     */
+    public MergeRequestKey key() {
+        return projectId != null && mergeRequestIid != null ? new MergeRequestKey(projectId, mergeRequestIid) : null;
+    }
+}
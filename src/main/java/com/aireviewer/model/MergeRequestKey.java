@@ -0,0 +1,16 @@
+package com.aireviewer.model;
+
+/**
+ * Identifies a merge request across webhook deliveries: the numeric project
+ * id together with the project-scoped MR iid. Used as the key wherever work
+ * has to be tracked per merge request.
+ *
+ * @param projectId the GitLab project id
+ * @param mergeRequestIid the internal ID of the merge request
+ */
+public record MergeRequestKey(long projectId, long mergeRequestIid) {
+    @Override
+    public String toString() {
+        return projectId + "!" + mergeRequestIid;
+    }
+}
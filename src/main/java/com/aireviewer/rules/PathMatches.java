@@ -0,0 +1,56 @@
+package com.aireviewer.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of classifying the changed files of a merge request with a
+ * {@link PathRuleEngine}: for every file, the set of rules it matched.
+ * Immutable; shared by all agents of a review.
+ */
+public final class PathMatches {
+    private final PathRuleEngine engine;
+    private final List<String> paths;
+    private final long[] masks;
+
+    PathMatches(PathRuleEngine engine, List<String> paths, long[] masks) {
+        this.engine = engine;
+        this.paths = paths;
+        this.masks = masks;
+    }
+
+    public int size() {
+        return masks.length;
+    }
+
+    public String path(int index) {
+        return paths.get(index);
+    }
+
+    /**
+     * @param index index of the file in the classified list
+     * @param ruleId the rule to test
+     * @return {@code true} if the file matched the rule
+     */
+    public boolean matches(int index, String ruleId) {
+        return (masks[index] & engine.bit(ruleId)) != 0;
+    }
+
+    /**
+     * @param ruleId the rule to test
+     * @return the matching paths, in their original order
+     */
+    public List<String> filesMatching(String ruleId) {
+        long bit = engine.bit(ruleId);
+        List<String> result = new ArrayList<>();
+        if (bit == 0) {
+            return result;
+        }
+        for (int i = 0; i < masks.length; i++) {
+            if ((masks[i] & bit) != 0) {
+                result.add(paths.get(i));
+            }
+        }
+        return result;
+    }
+}
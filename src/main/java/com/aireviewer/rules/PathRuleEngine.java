@@ -0,0 +1,196 @@
+package com.aireviewer.rules;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classifies file paths against a set of keyword rules in a single pass.
+ *
+ * All keywords of all rules are compiled once into an Aho-Corasick automaton
+ * over lowercased characters. Classifying a path walks it exactly once,
+ * lowercasing character by character, so no lowercased copy of the path is
+ * allocated and the cost does not grow with the number of rules. A rule
+ * matches a path when any of its keywords occurs in it as a substring
+ * (case-insensitive), which is the semantics the agents used with
+ * {@code path.toLowerCase().contains(keyword)}.
+ *
+ * Instances are immutable and thread-safe. At most 64 rules are supported.
+ */
+public final class PathRuleEngine {
+    private static final int ASCII = 128;
+
+    private final List<String> ruleIds;
+    private final Map<String, Integer> ruleIndex;
+    /** Dense transition table for ASCII input: state * 128 + char. */
+    private final int[] asciiTransitions;
+    /** Sparse transitions for non-ASCII characters, per state. */
+    private final List<Map<Character, Integer>> otherTransitions;
+    private final int[] failure;
+    /** Bit set of the rules matched when the automaton reaches a state. */
+    private final long[] output;
+
+    /**
+     * @param rules rule id to keywords, in rule order
+     * @throws IllegalArgumentException if there are more than 64 rules or a rule has no usable keyword
+     */
+    public PathRuleEngine(Map<String, List<String>> rules) {
+        if (rules.size() > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " path rules are supported");
+        }
+        this.ruleIds = List.copyOf(rules.keySet());
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < ruleIds.size(); i++) {
+            index.put(ruleIds.get(i), i);
+        }
+        this.ruleIndex = Collections.unmodifiableMap(index);
+
+        // Build the trie
+        List<int[]> ascii = new ArrayList<>();
+        List<Map<Character, Integer>> other = new ArrayList<>();
+        List<Long> out = new ArrayList<>();
+        ascii.add(newRow());
+        other.add(new HashMap<>());
+        out.add(0L);
+        for (Map.Entry<String, List<String>> rule : rules.entrySet()) {
+            long bit = 1L << index.get(rule.getKey());
+            boolean hasKeyword = false;
+            for (String keyword : rule.getValue()) {
+                if (keyword == null || keyword.isEmpty()) continue;
+                hasKeyword = true;
+                int state = 0;
+                for (int i = 0; i < keyword.length(); i++) {
+                    char c = Character.toLowerCase(keyword.charAt(i));
+                    int next = c < ASCII ? ascii.get(state)[c] : other.get(state).getOrDefault(c, -1);
+                    if (next < 0) {
+                        next = ascii.size();
+                        ascii.add(newRow());
+                        other.add(new HashMap<>());
+                        out.add(0L);
+                        if (c < ASCII) ascii.get(state)[c] = next;
+                        else other.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                out.set(state, out.get(state) | bit);
+            }
+            if (!hasKeyword) {
+                throw new IllegalArgumentException("Path rule '" + rule.getKey() + "' has no keywords");
+            }
+        }
+
+        // Breadth-first: compute failure links and complete the ASCII goto table
+        int states = ascii.size();
+        this.asciiTransitions = new int[states * ASCII];
+        this.failure = new int[states];
+        this.output = new long[states];
+        for (int s = 0; s < states; s++) {
+            output[s] = out.get(s);
+        }
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int[] root = ascii.get(0);
+        for (int c = 0; c < ASCII; c++) {
+            int next = root[c];
+            if (next < 0) {
+                asciiTransitions[c] = 0;
+            } else {
+                asciiTransitions[c] = next;
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        for (Map.Entry<Character, Integer> e : other.get(0).entrySet()) {
+            failure[e.getValue()] = 0;
+            queue.add(e.getValue());
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            output[state] |= output[failure[state]];
+            int[] row = ascii.get(state);
+            for (int c = 0; c < ASCII; c++) {
+                int next = row[c];
+                int viaFailure = asciiTransitions[failure[state] * ASCII + c];
+                if (next < 0) {
+                    asciiTransitions[state * ASCII + c] = viaFailure;
+                } else {
+                    asciiTransitions[state * ASCII + c] = next;
+                    failure[next] = viaFailure;
+                    queue.add(next);
+                }
+            }
+            for (Map.Entry<Character, Integer> e : other.get(state).entrySet()) {
+                failure[e.getValue()] = nonAsciiStep(other, failure[state], e.getKey());
+                queue.add(e.getValue());
+            }
+        }
+        this.otherTransitions = new ArrayList<>(states);
+        for (Map<Character, Integer> m : other) {
+            otherTransitions.add(m.isEmpty() ? Map.of() : Map.copyOf(m));
+        }
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[ASCII];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private int nonAsciiStep(List<Map<Character, Integer>> other, int state, char c) {
+        while (true) {
+            Integer next = other.get(state).get(c);
+            if (next != null) return next;
+            if (state == 0) return 0;
+            state = failure[state];
+        }
+    }
+
+    /**
+     * @param path the path to classify
+     * @return bit set of the matching rules, see {@link #bit(String)}
+     */
+    public long match(CharSequence path) {
+        long matched = 0L;
+        int state = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = Character.toLowerCase(path.charAt(i));
+            state = c < ASCII ? asciiTransitions[state * ASCII + c] : nonAsciiStep(otherTransitions, state, c);
+            matched |= output[state];
+        }
+        return matched;
+    }
+
+    /**
+     * Classify every path in one pass.
+     *
+     * @param paths the paths, may be {@code null}
+     * @return the matches per path
+     */
+    public PathMatches classify(List<String> paths) {
+        if (paths == null || paths.isEmpty()) {
+            return new PathMatches(this, List.of(), new long[0]);
+        }
+        long[] masks = new long[paths.size()];
+        for (int i = 0; i < masks.length; i++) {
+            String path = paths.get(i);
+            masks[i] = path != null ? match(path) : 0L;
+        }
+        return new PathMatches(this, paths, masks);
+    }
+
+    /**
+     * @param ruleId the rule id
+     * @return the bit representing the rule in match results, 0 for unknown rules
+     */
+    public long bit(String ruleId) {
+        Integer i = ruleIndex.get(ruleId);
+        return i != null ? 1L << i : 0L;
+    }
+
+    public List<String> getRuleIds() {
+        return ruleIds;
+    }
+}
@@ -0,0 +1,18 @@
+package com.aireviewer.rules;
+
+/**
+ * Identifiers of the path rules used by the agents. The keywords for each
+ * rule come from the rule catalog, see {@link RuleSet}.
+ */
+public final class PathRules {
+    /** Files whose name hints at a deprecated or legacy component (ArchitectureAgent). */
+    public static final String ARCH_DEPRECATED = "arch.deprecated";
+    /** Generic utility/helper classes (CodeAgent). */
+    public static final String CODE_UTIL = "code.util";
+    /** Service classes that deserve unit tests (TestAgent). */
+    public static final String TEST_SERVICE = "test.service";
+    /** Controllers that deserve test cases (TestAgent). */
+    public static final String TEST_CONTROLLER = "test.controller";
+
+    private PathRules() {}
+}
@@ -0,0 +1,173 @@
+package com.aireviewer.rules;
+
+import com.aireviewer.metrics.StatsSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current {@link RuleSet}. Without {@code review.rules.path} the
+ * catalog bundled with the application is used. When a path is configured
+ * the file is loaded at startup and watched afterwards: every change is
+ * validated and compiled off the review path and then swapped in atomically.
+ * Reviews that already took a snapshot via {@link #current()} keep using it,
+ * so a reload never pauses or mixes in-flight reviews. An invalid catalog is
+ * logged and ignored; the previous rule set stays active.
+ */
+@Component
+public class RuleCatalog implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(RuleCatalog.class);
+
+    private final Path path;
+    private final long reloadDelayMs;
+    private final AtomicReference<RuleSet> current = new AtomicReference<>(RuleSet.defaults());
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+    private volatile Instant loadedAt = Instant.now();
+    private WatchService watchService;
+    private Thread watcher;
+
+    public RuleCatalog(@Value("${review.rules.path:}") String path,
+                       @Value("${review.rules.reload-delay-ms:250}") long reloadDelayMs) {
+        this.path = path == null || path.isBlank() ? null : Path.of(path).toAbsolutePath();
+        this.reloadDelayMs = reloadDelayMs;
+    }
+
+    /**
+     * Load the external catalog (failing startup if it is invalid) and start
+     * watching it for changes.
+     */
+    @PostConstruct
+    public void start() {
+        if (path == null) {
+            log.info("Using bundled rule catalog (version {})", current.get().getVersion());
+            return;
+        }
+        try {
+            swap(load());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read rule catalog " + path + ": " + e.getMessage(), e);
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watcher = new Thread(this::watch, "rule-catalog-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException e) {
+            log.warn("Cannot watch rule catalog {}; changes require a restart: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the rule set to use for a review; callers should take it once
+     *         per review and keep the reference
+     */
+    public RuleSet current() {
+        return current.get();
+    }
+
+    /**
+     * Re-read the external catalog now. Invalid content is rejected and the
+     * current rule set is kept.
+     *
+     * @return {@code true} if a new rule set was activated
+     */
+    public boolean reload() {
+        if (path == null) {
+            return false;
+        }
+        try {
+            RuleSet loaded = load();
+            if (loaded.getVersion().equals(current.get().getVersion())) {
+                return false;
+            }
+            swap(loaded);
+            reloads.incrementAndGet();
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            failedReloads.incrementAndGet();
+            log.error("Rule catalog reload rejected, keeping version {}: {}", current.get().getVersion(), e.getMessage());
+            return false;
+        }
+    }
+
+    private RuleSet load() throws IOException {
+        return RuleSet.parse(Files.readAllBytes(path), path.toString());
+    }
+
+    private void swap(RuleSet ruleSet) {
+        current.set(ruleSet);
+        loadedAt = Instant.now();
+        log.info("Activated rule catalog {} (version {})", ruleSet.getSource(), ruleSet.getVersion());
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                WatchKey key = watchService.take();
+                // Editors and config-map updates touch the directory several times; settle first
+                TimeUnit.MILLISECONDS.sleep(reloadDelayMs);
+                key.pollEvents();
+                key.reset();
+                if (Files.exists(path)) {
+                    reload();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Rule catalog watcher error: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "ruleCatalog";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        RuleSet ruleSet = current.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("source", ruleSet.getSource());
+        stats.put("version", ruleSet.getVersion());
+        stats.put("loadedAt", loadedAt.toString());
+        stats.put("reloads", reloads.get());
+        stats.put("failedReloads", failedReloads.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.debug("Failed to close rule catalog watcher: {}", e.getMessage());
+            }
+        }
+    }
+}
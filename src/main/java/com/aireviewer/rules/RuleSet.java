@@ -0,0 +1,191 @@
+package com.aireviewer.rules;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable, compiled form of the review rule catalog: the path rules as a
+ * ready-to-use {@link PathRuleEngine} plus the numeric thresholds used by the
+ * agents. A rule set is produced once per catalog load and then only read, so
+ * reviews never re-parse configuration.
+ *
+ * The catalog is a properties file (see the bundled
+ * {@code review-rules.properties}) with {@code path.<rule-id>} entries holding
+ * comma separated keywords and {@code threshold.*} entries holding line
+ * counts.
+ */
+public final class RuleSet {
+    public static final String BUNDLED_CATALOG = "/review-rules.properties";
+
+    static final String LARGE_DIFF = "threshold.code.large-diff-lines";
+    static final String SMALL_DIFF = "threshold.code.small-diff-lines";
+    static final String LONG_DIFF = "threshold.test.long-diff-lines";
+    private static final Set<String> THRESHOLDS = Set.of(LARGE_DIFF, SMALL_DIFF, LONG_DIFF);
+    private static final List<String> REQUIRED_PATH_RULES = List.of(
+            PathRules.ARCH_DEPRECATED, PathRules.CODE_UTIL, PathRules.TEST_SERVICE, PathRules.TEST_CONTROLLER);
+
+    private final String version;
+    private final String source;
+    private final PathRuleEngine pathEngine;
+    private final int largeDiffLines;
+    private final int smallDiffLines;
+    private final int longDiffLines;
+
+    private RuleSet(String version, String source, PathRuleEngine pathEngine,
+                    int largeDiffLines, int smallDiffLines, int longDiffLines) {
+        this.version = version;
+        this.source = source;
+        this.pathEngine = pathEngine;
+        this.largeDiffLines = largeDiffLines;
+        this.smallDiffLines = smallDiffLines;
+        this.longDiffLines = longDiffLines;
+    }
+
+    /**
+     * Validate and compile a catalog.
+     *
+     * @param content the raw catalog bytes (UTF-8 properties)
+     * @param source description of where the catalog came from, for logging
+     * @return the compiled rule set
+     * @throws IllegalArgumentException if the catalog is invalid
+     */
+    public static RuleSet parse(byte[] content, String source) {
+        Properties props = new Properties();
+        try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)) {
+            props.load(reader);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read rule catalog " + source + ": " + e.getMessage(), e);
+        }
+        List<String> errors = new ArrayList<>();
+        Map<String, List<String>> pathRules = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(props.stringPropertyNames())) {
+            String value = props.getProperty(key).trim();
+            if (key.startsWith("path.")) {
+                List<String> keywords = new ArrayList<>();
+                for (String keyword : value.split(",")) {
+                    String k = keyword.trim();
+                    if (!k.isEmpty()) keywords.add(k);
+                }
+                if (keywords.isEmpty()) {
+                    errors.add(key + " has no keywords");
+                } else {
+                    pathRules.put(key.substring("path.".length()), List.copyOf(keywords));
+                }
+            } else if (!THRESHOLDS.contains(key)) {
+                errors.add("unknown entry " + key);
+            }
+        }
+        for (String rule : REQUIRED_PATH_RULES) {
+            if (!pathRules.containsKey(rule)) errors.add("missing path." + rule);
+        }
+        int large = threshold(props, LARGE_DIFF, errors);
+        int small = threshold(props, SMALL_DIFF, errors);
+        int longDiff = threshold(props, LONG_DIFF, errors);
+        if (errors.isEmpty() && small >= large) {
+            errors.add(SMALL_DIFF + " must be lower than " + LARGE_DIFF);
+        }
+        PathRuleEngine engine = null;
+        if (errors.isEmpty()) {
+            try {
+                engine = new PathRuleEngine(pathRules);
+            } catch (IllegalArgumentException e) {
+                errors.add(e.getMessage());
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Invalid rule catalog " + source + ": " + String.join("; ", errors));
+        }
+        return new RuleSet(digest(content), source, engine, large, small, longDiff);
+    }
+
+    private static int threshold(Properties props, String key, List<String> errors) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            errors.add("missing " + key);
+            return 0;
+        }
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n > 0) return n;
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        errors.add(key + " must be a positive integer");
+        return 0;
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            return HexFormat.of().formatHex(hash, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the rule set compiled from the catalog bundled with the application
+     */
+    public static RuleSet defaults() {
+        return Defaults.INSTANCE;
+    }
+
+    /**
+     * @return short content hash of the catalog, changes whenever the rules change
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public PathRuleEngine getPathEngine() {
+        return pathEngine;
+    }
+
+    /** @return diff size above which CodeAgent asks to split the MR */
+    public int getLargeDiffLines() {
+        return largeDiffLines;
+    }
+
+    /** @return diff size below which CodeAgent flags a trivial change */
+    public int getSmallDiffLines() {
+        return smallDiffLines;
+    }
+
+    /** @return diff size above which TestAgent gives generic test advice */
+    public int getLongDiffLines() {
+        return longDiffLines;
+    }
+
+    private static final class Defaults {
+        private static final RuleSet INSTANCE = load();
+
+        private static RuleSet load() {
+            try (InputStream is = RuleSet.class.getResourceAsStream(BUNDLED_CATALOG)) {
+                if (is == null) {
+                    throw new IllegalStateException("Bundled rule catalog " + BUNDLED_CATALOG + " not found");
+                }
+                return parse(is.readAllBytes(), "classpath:" + BUNDLED_CATALOG);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
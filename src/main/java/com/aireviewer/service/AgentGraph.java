@@ -0,0 +1,119 @@
+package com.aireviewer.service;
+
+import com.aireviewer.agent.Agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Dependency graph of the registered agents, derived from their
+ * {@link Agent#produces()} / {@link Agent#consumes()} declarations. The graph
+ * is validated when it is built: an artifact with two producers, a consumed
+ * artifact nobody produces, or a dependency cycle is reported with an
+ * {@link IllegalStateException}, which aborts application startup.
+ *
+ * <p>Agents are identified by their registration index. The topological
+ * order breaks ties by that index, so agents without dependencies keep the
+ * order in which they were registered.</p>
+ */
+final class AgentGraph {
+    private final List<Agent> agents;
+    private final List<List<Integer>> dependencies;
+    private final List<Integer> topologicalOrder;
+
+    AgentGraph(List<Agent> agents) {
+        this.agents = List.copyOf(agents);
+        Map<String, Integer> producers = new HashMap<>();
+        for (int i = 0; i < this.agents.size(); i++) {
+            for (String artifact : this.agents.get(i).produces()) {
+                Integer previous = producers.putIfAbsent(artifact, i);
+                if (previous != null) {
+                    throw new IllegalStateException("Artifact '" + artifact + "' is produced by both "
+                            + name(previous) + " and " + name(i));
+                }
+            }
+        }
+        List<List<Integer>> deps = new ArrayList<>(this.agents.size());
+        for (int i = 0; i < this.agents.size(); i++) {
+            TreeSet<Integer> agentDeps = new TreeSet<>();
+            for (String artifact : this.agents.get(i).consumes()) {
+                Integer producer = producers.get(artifact);
+                if (producer == null) {
+                    throw new IllegalStateException(name(i) + " consumes '" + artifact + "' but no agent produces it");
+                }
+                if (producer == i) {
+                    throw new IllegalStateException(name(i) + " consumes its own artifact '" + artifact + "'");
+                }
+                agentDeps.add(producer);
+            }
+            deps.add(List.copyOf(agentDeps));
+        }
+        this.dependencies = List.copyOf(deps);
+        this.topologicalOrder = sort();
+    }
+
+    private List<Integer> sort() {
+        int n = agents.size();
+        int[] pending = new int[n];
+        List<List<Integer>> dependents = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            dependents.add(new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            pending[i] = dependencies.get(i).size();
+            for (int dep : dependencies.get(i)) {
+                dependents.get(dep).add(i);
+            }
+        }
+        PriorityQueue<Integer> ready = new PriorityQueue<>();
+        for (int i = 0; i < n; i++) {
+            if (pending[i] == 0) ready.add(i);
+        }
+        List<Integer> order = new ArrayList<>(n);
+        while (!ready.isEmpty()) {
+            int next = ready.poll();
+            order.add(next);
+            for (int dependent : dependents.get(next)) {
+                if (--pending[dependent] == 0) ready.add(dependent);
+            }
+        }
+        if (order.size() != n) {
+            List<String> cyclic = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (pending[i] > 0) cyclic.add(name(i));
+            }
+            throw new IllegalStateException("Agent dependency cycle detected among " + cyclic);
+        }
+        return List.copyOf(order);
+    }
+
+    int size() {
+        return agents.size();
+    }
+
+    Agent agent(int index) {
+        return agents.get(index);
+    }
+
+    /**
+     * @return registration indices of the agents that must finish before {@code index} starts
+     */
+    List<Integer> dependencies(int index) {
+        return dependencies.get(index);
+    }
+
+    /**
+     * @return registration indices in an order that respects all dependencies
+     */
+    List<Integer> topologicalOrder() {
+        return topologicalOrder;
+    }
+
+    String name(int index) {
+        return agents.get(index).getClass().getSimpleName();
+    }
+}
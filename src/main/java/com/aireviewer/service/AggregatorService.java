@@ -1,26 +1,91 @@
 package com.aireviewer.service;
 
 import com.aireviewer.agent.Agent;
+import com.aireviewer.client.CancellationToken;
+import com.aireviewer.metrics.StatsSource;
 import com.aireviewer.model.AIReviewComment;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Coordinates the execution of all registered agents. The service is
- * intentionally kept simple: it sequentially invokes each agent to enrich
- * the {@link AIReviewComment}. Agents should be stateless so that they can
- * safely be reused across requests.
+ * Coordinates the execution of all registered agents. Agents are arranged in
+ * an {@link AgentGraph} built from their produces/consumes declarations; the
+ * graph is validated at construction so that dependency cycles fail startup.
+ * By default the service invokes the agents one after another in dependency
+ * order to enrich a single {@link AIReviewComment}. Agents should be
+ * stateless so that they can safely be reused across requests.
+ *
+ * <p>With {@code review.agents.parallel=true} agents run concurrently, each
+ * writing into its own partial comment. An agent starts as soon as the agents
+ * it depends on have finished, and its partial is seeded with their Jira
+ * context and "done well" remark. The partials are merged in registration
+ * order, so the result is identical to a sequential run. Every agent gets
+ * {@code review.agents.timeout-ms} from the moment it starts; an agent that
+ * times out or throws is logged and left out of the review instead of failing
+ * it, and its dependents run with whatever context is available.</p>
+ *
+ * <p>The review stops before the next agent once its
+ * {@link CancellationToken} has been cancelled.</p>
  */
 @Service
-public class AggregatorService {
+public class AggregatorService implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(AggregatorService.class);
 
-    private final List<Agent> agents;
+    private final AgentGraph graph;
+    private final boolean parallel;
+    private final long agentTimeoutMs;
+    private final ExecutorService executor;
+    private final Map<String, AtomicLong> timeouts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
 
     public AggregatorService(List<Agent> agents) {
-        this.agents = agents;
+        this(agents, false, 0, false);
+    }
+
+    @Autowired
+    public AggregatorService(List<Agent> agents,
+                             @Value("${review.agents.parallel:false}") boolean parallel,
+                             @Value("${review.agents.timeout-ms:30000}") long agentTimeoutMs,
+                             @Value("${review.executor.virtual-threads:false}") boolean virtualThreads) {
+        this.graph = new AgentGraph(agents);
+        this.parallel = parallel;
+        this.agentTimeoutMs = agentTimeoutMs;
+        if (!parallel) {
+            this.executor = null;
+        } else if (virtualThreads) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("agent-vt-", 1).factory());
+        } else {
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "agent-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
     }
 
     /**
@@ -31,12 +96,141 @@ public class AggregatorService {
      * @param mrContext  merge request context
      * @param jiraContext business context
      * @return aggregated AI review comment
+     * @throws java.util.concurrent.CancellationException if the review was cancelled
      */
     public AIReviewComment review(MergeRequestContext mrContext, JiraContext jiraContext) {
+        CancellationToken token = CancellationToken.current();
+        if (parallel) {
+            AIReviewComment comment = reviewInParallel(mrContext, jiraContext, token);
+            token.throwIfCancelled();
+            return comment;
+        }
+        AIReviewComment comment = new AIReviewComment();
+        for (int index : graph.topologicalOrder()) {
+            token.throwIfCancelled();
+            graph.agent(index).analyse(mrContext, jiraContext, comment);
+        }
+        return comment;
+    }
+
+    /**
+     * @return identifies the registered agents and their execution order; part
+     *         of the review cache key so that adding or removing an agent
+     *         invalidates cached reviews
+     */
+    public String getAgentsVersion() {
+        return String.join(",", graph.topologicalOrder().stream().map(i -> graph.agent(i).getClass().getName()).toList());
+    }
+
+    private AIReviewComment reviewInParallel(MergeRequestContext mrContext, JiraContext jiraContext,
+                                             CancellationToken token) {
+        int size = graph.size();
+        AIReviewComment[] partials = new AIReviewComment[size];
+        List<CompletableFuture<Boolean>> outcomes = new ArrayList<>(Collections.nCopies(size, null));
+        List<Future<?>> tasks = new CopyOnWriteArrayList<>();
+        for (int index : graph.topologicalOrder()) {
+            List<Integer> deps = graph.dependencies(index);
+            CompletableFuture<?>[] depOutcomes = deps.stream().map(outcomes::get).toArray(CompletableFuture[]::new);
+            outcomes.set(index, CompletableFuture.allOf(depOutcomes)
+                    .thenCompose(ignored -> {
+                        AIReviewComment partial = new AIReviewComment();
+                        for (int dep : deps) {
+                            if (outcomes.get(dep).join()) {
+                                partial.mergeContextFrom(partials[dep]);
+                            }
+                        }
+                        partials[index] = partial;
+                        return runAgent(index, mrContext, jiraContext, partial, tasks, token);
+                    }));
+        }
+        try {
+            CompletableFuture.allOf(outcomes.toArray(CompletableFuture[]::new)).get();
+        } catch (InterruptedException e) {
+            tasks.forEach(t -> t.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for agents", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Agent scheduling failed", e.getCause());
+        }
         AIReviewComment comment = new AIReviewComment();
-        for (Agent agent : agents) {
-            agent.analyse(mrContext, jiraContext, comment);
+        for (int i = 0; i < size; i++) {
+            if (outcomes.get(i).join()) {
+                comment.mergeFrom(partials[i]);
+            }
         }
         return comment;
     }
-}
\ No newline at end of file
+
+    /**
+     * Run one agent with its own timeout. The returned future always completes
+     * normally: {@code true} if the agent finished, {@code false} if it timed
+     * out or failed, so that dependents are never blocked by a broken agent.
+     */
+    private CompletableFuture<Boolean> runAgent(int index, MergeRequestContext mrContext, JiraContext jiraContext,
+                                                AIReviewComment partial, List<Future<?>> tasks,
+                                                CancellationToken token) {
+        String name = graph.name(index);
+        Agent agent = graph.agent(index);
+        if (token.isCancelled()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                CancellationToken.callWith(token, () -> {
+                    agent.analyse(mrContext, jiraContext, partial);
+                    return null;
+                });
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        });
+        tasks.add(task);
+        return done.orTimeout(agentTimeoutMs, TimeUnit.MILLISECONDS).handle((v, ex) -> {
+            if (ex == null) {
+                return true;
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof TimeoutException) {
+                task.cancel(true);
+                counter(timeouts, name).incrementAndGet();
+                log.warn("Agent {} did not finish within {} ms; its findings are skipped", name, agentTimeoutMs);
+            } else {
+                counter(failures, name).incrementAndGet();
+                log.warn("Agent {} failed; its findings are skipped: {}", name, cause.getMessage(), cause);
+            }
+            return false;
+        });
+    }
+
+    private static AtomicLong counter(Map<String, AtomicLong> counters, String name) {
+        return counters.computeIfAbsent(name, n -> new AtomicLong());
+    }
+
+    @Override
+    public String statsName() {
+        return "agents";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("parallel", parallel);
+        stats.put("order", graph.topologicalOrder().stream().map(graph::name).toList());
+        Map<String, Long> t = new LinkedHashMap<>();
+        timeouts.forEach((k, v) -> t.put(k, v.get()));
+        stats.put("timeouts", t);
+        Map<String, Long> f = new LinkedHashMap<>();
+        failures.forEach((k, v) -> f.put(k, v.get()));
+        stats.put("failures", f);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.aireviewer.service;
+
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.MergeRequestEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recognises webhook deliveries that were already accepted, so that GitLab's
+ * retries of a slow delivery do not start the same review again. Two kinds of
+ * keys are remembered for {@code review.dedup.ttl-ms}:
+ * <ul>
+ *   <li>the delivery id GitLab sends in {@code X-Gitlab-Event-UUID}, which
+ *   stays the same across retries of one delivery;</li>
+ *   <li>project, merge request and head commit of a reviewable event, which
+ *   catches separate deliveries (e.g. a title edit) for code already
+ *   reviewed.</li>
+ * </ul>
+ *
+ * A review that fails or is dropped forgets its keys again, so that GitLab's
+ * next delivery of the event is reviewed.
+ *
+ * Keys are stored as 64-bit hashes in a ring of open-addressing sets, one per
+ * quarter of the TTL; expiry drops the oldest set as a whole. Memory is fixed
+ * by {@code review.dedup.max-entries}: when the current set is full the ring
+ * advances early, so under a flood keys are forgotten sooner rather than the
+ * index growing.
+ */
+@Component
+public class EventDeduplicator implements StatsSource {
+    private static final int BUCKETS = 4;
+
+    private final long ttlMs;
+    private final long bucketNanos;
+    private final int bucketCapacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    // One more set than BUCKETS so that a key lives for at least the full TTL
+    private final LongSet[] sets = new LongSet[BUCKETS + 1];
+    private int current;
+    private long currentStart = System.nanoTime();
+    private final AtomicLong duplicateDeliveries = new AtomicLong();
+    private final AtomicLong duplicateEvents = new AtomicLong();
+    private final AtomicLong earlyRotations = new AtomicLong();
+    private final AtomicLong forgotten = new AtomicLong();
+
+    public EventDeduplicator(@Value("${review.dedup.ttl-ms:900000}") long ttlMs,
+                             @Value("${review.dedup.max-entries:50000}") int maxEntries) {
+        this.ttlMs = ttlMs;
+        this.bucketNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(ttlMs) / BUCKETS);
+        this.bucketCapacity = Math.max(16, maxEntries / BUCKETS);
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = new LongSet(bucketCapacity);
+        }
+    }
+
+    /**
+     * @param deliveryId the {@code X-Gitlab-Event-UUID} header, may be {@code null}
+     * @return {@code true} if this delivery was already accepted
+     */
+    public boolean isDuplicate(String deliveryId) {
+        if (deliveryId == null || deliveryId.isBlank() || ttlMs <= 0) {
+            return false;
+        }
+        boolean duplicate;
+        lock.lock();
+        try {
+            expire(System.nanoTime());
+            duplicate = contains(deliveryKey(deliveryId));
+        } finally {
+            lock.unlock();
+        }
+        if (duplicate) {
+            duplicateDeliveries.incrementAndGet();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Remember an accepted delivery and its event unless either was already
+     * accepted; checking and remembering is one atomic step, so of two
+     * concurrent copies of a delivery only one is claimed. Either may be
+     * {@code null}.
+     *
+     * @param deliveryId the {@code X-Gitlab-Event-UUID} header
+     * @param event a reviewable merge request event
+     * @return {@code true} if the event is new and should be reviewed; {@code false}
+     *         if the delivery or the same head commit of the merge request was already accepted
+     */
+    public boolean claim(String deliveryId, MergeRequestEvent event) {
+        if (ttlMs <= 0) {
+            return true;
+        }
+        long delivery = deliveryId != null && !deliveryId.isBlank() ? deliveryKey(deliveryId) : 0;
+        long key = event != null ? eventKey(event) : 0;
+        lock.lock();
+        try {
+            expire(System.nanoTime());
+            if (delivery != 0 && contains(delivery)) {
+                duplicateDeliveries.incrementAndGet();
+                return false;
+            }
+            if (key != 0 && contains(key)) {
+                duplicateEvents.incrementAndGet();
+                return false;
+            }
+            if (delivery != 0) {
+                add(delivery);
+            }
+            if (key != 0) {
+                add(key);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forget a claimed delivery and its event, so that a retry is reviewed:
+     * used when the event was rejected or its review did not complete.
+     * Either may be {@code null}.
+     *
+     * @param deliveryId the {@code X-Gitlab-Event-UUID} header
+     * @param event the event
+     */
+    public void forget(String deliveryId, MergeRequestEvent event) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        long delivery = deliveryId != null && !deliveryId.isBlank() ? deliveryKey(deliveryId) : 0;
+        long key = event != null ? eventKey(event) : 0;
+        lock.lock();
+        try {
+            for (LongSet set : sets) {
+                if (delivery != 0) {
+                    set.remove(delivery);
+                }
+                if (key != 0) {
+                    set.remove(key);
+                }
+            }
+            forgotten.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean contains(long key) {
+        for (LongSet set : sets) {
+            if (set.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(long key) {
+        if (sets[current].size() >= bucketCapacity) {
+            earlyRotations.incrementAndGet();
+            advance();
+            currentStart = System.nanoTime();
+        }
+        sets[current].add(key);
+    }
+
+    private void expire(long now) {
+        int steps = 0;
+        while (now - currentStart >= bucketNanos) {
+            if (++steps > sets.length) {
+                // Idle for longer than the TTL: everything has expired
+                currentStart = now;
+                break;
+            }
+            advance();
+            currentStart += bucketNanos;
+        }
+    }
+
+    private void advance() {
+        current = (current + 1) % sets.length;
+        sets[current].clear();
+    }
+
+    private static long deliveryKey(String deliveryId) {
+        return hash("delivery:" + deliveryId.trim().toLowerCase());
+    }
+
+    private static long eventKey(MergeRequestEvent event) {
+        if (event.key() == null || event.headSha() == null) {
+            return 0;
+        }
+        return hash("event:" + event.projectId() + ":" + event.mergeRequestIid() + ":" + event.headSha());
+    }
+
+    /**
+     * FNV-1a followed by the murmur3 finalizer; never returns 0, which marks
+     * an empty slot.
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    @Override
+    public String statsName() {
+        return "eventDedup";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int size = 0;
+        lock.lock();
+        try {
+            expire(System.nanoTime());
+            for (LongSet set : sets) {
+                size += set.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+        stats.put("size", size);
+        stats.put("ttlMs", ttlMs);
+        stats.put("duplicateDeliveries", duplicateDeliveries.get());
+        stats.put("duplicateEvents", duplicateEvents.get());
+        stats.put("earlyRotations", earlyRotations.get());
+        stats.put("forgotten", forgotten.get());
+        return stats;
+    }
+
+    /**
+     * Set of non-zero longs with linear probing, kept at most half full.
+     */
+    private static final class LongSet {
+        private final long[] slots;
+        private final int mask;
+        private int size;
+
+        private LongSet(int capacity) {
+            slots = new long[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            mask = slots.length - 1;
+        }
+
+        boolean contains(long key) {
+            for (int i = (int) key & mask; slots[i] != 0; i = (i + 1) & mask) {
+                if (slots[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long key) {
+            int i = (int) key & mask;
+            while (slots[i] != 0) {
+                if (slots[i] == key) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = key;
+            size++;
+        }
+
+        void remove(long key) {
+            int i = (int) key & mask;
+            while (slots[i] != key) {
+                if (slots[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // Shift the rest of the probe run back over the gap so that lookups still find it
+            int gap = i;
+            for (int j = (gap + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+                int home = (int) slots[j] & mask;
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    slots[gap] = slots[j];
+                    gap = j;
+                }
+            }
+            slots[gap] = 0;
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(slots, 0L);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package com.aireviewer.service;
+
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.MergeRequestEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of accepted merge request events, so that a review
+ * interrupted by a deploy or a crash is not lost after GitLab has been told
+ * that its webhook was accepted. Every event is written before it is
+ * acknowledged and marked complete once its review has been published;
+ * events that are still open on startup are replayed.
+ *
+ * <p>The journal is a directory ({@code review.journal.dir}; empty disables
+ * it) of fixed-size, memory-mapped segment files
+ * ({@code review.journal.segment-bytes}). An append is a copy into the
+ * mapping, which the kernel keeps even if the process dies. With
+ * {@code review.journal.fsync=true} appends also wait until their data has
+ * been forced to disk (surviving power loss as well); a background thread
+ * forces all pending appends at once (group commit), so concurrent webhooks
+ * share one sync. Segments are deleted oldest first once all their events
+ * are complete; on startup the open events are copied into a fresh segment
+ * and all older segments are removed.</p>
+ *
+ * <p>Record layout: {@code int length, int crc32, byte type, long id,
+ * payload}. A zero length ends a segment's data; a record with a bad
+ * checksum (torn write) ends it as well.</p>
+ */
+@Component
+public class IntakeJournal implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(IntakeJournal.class);
+    private static final String SUFFIX = ".journal";
+    private static final byte ACCEPTED = 1;
+    private static final byte COMPLETED = 2;
+    private static final int HEADER = 8;
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final Condition dirty = lock.newCondition();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Map<Long, Segment> openEntries = new HashMap<>();
+    private final List<Entry> recovered = new ArrayList<>();
+    private Segment active;
+    private long nextId = 1;
+    private long nextSegment = 1;
+    private long writtenId;
+    private long durableId;
+    private boolean closed;
+    private Thread flusher;
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong appendNanos = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong deletedSegments = new AtomicLong();
+
+    @Autowired
+    public IntakeJournal(@Value("${review.journal.dir:}") String dir,
+                         @Value("${review.journal.segment-bytes:4194304}") long segmentBytes,
+                         @Value("${review.journal.fsync:false}") boolean fsync) {
+        this.dir = dir == null || dir.isBlank() ? null : Path.of(dir);
+        this.segmentBytes = Math.max(4096, segmentBytes);
+        this.fsync = fsync;
+    }
+
+    /**
+     * @return a journal that records nothing
+     */
+    static IntakeJournal disabled() {
+        return new IntakeJournal(null, 0, false);
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Recover the open events of a previous run and start a new segment.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Files.createDirectories(dir);
+        Map<Long, MergeRequestEvent> open = new LinkedHashMap<>();
+        List<Path> old = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).sorted().forEach(old::add);
+        }
+        for (Path file : old) {
+            readSegment(file, open);
+            nextSegment = Math.max(nextSegment, segmentIndex(file) + 1);
+        }
+        lock.lock();
+        try {
+            for (Map.Entry<Long, MergeRequestEvent> e : open.entrySet()) {
+                nextId = Math.max(nextId, e.getKey() + 1);
+            }
+            for (MergeRequestEvent event : open.values()) {
+                recovered.add(new Entry(write(event), event));
+            }
+            force(active != null ? active : roll(0));
+            durableId = writtenId;
+        } finally {
+            lock.unlock();
+        }
+        for (Path file : old) {
+            Files.deleteIfExists(file);
+        }
+        if (fsync) {
+            flusher = new Thread(this::flushLoop, "intake-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        log.info("Intake journal in {}: {} open event(s) recovered from {} segment(s)", dir, recovered.size(), old.size());
+    }
+
+    /**
+     * Hand out the events recovered by {@link #open()}, once.
+     *
+     * @return the events to review again, oldest first
+     */
+    public List<Entry> takeRecovered() {
+        lock.lock();
+        try {
+            List<Entry> result = List.copyOf(recovered);
+            recovered.clear();
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write an accepted event. Returns once the event would survive a crash
+     * of the process (and, with fsync, of the machine).
+     *
+     * @param event the event
+     * @return the journal id to {@link #complete(long)} later, or 0 if the journal is disabled
+     * @throws UncheckedIOException if the event could not be written
+     */
+    public long append(MergeRequestEvent event) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        long id;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new UncheckedIOException(new IOException("Intake journal is closed"));
+            }
+            id = write(event);
+            if (fsync) {
+                dirty.signal();
+                while (durableId < id && !closed) {
+                    flushed.awaitUninterruptibly();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+        appended.incrementAndGet();
+        appendNanos.addAndGet(System.nanoTime() - start);
+        return id;
+    }
+
+    /**
+     * Mark an event as handled. Its segment is deleted once all of its
+     * events and those of all older segments are complete. Unknown ids (including 0) are ignored.
+     *
+     * @param id the id returned by {@link #append(MergeRequestEvent)}
+     */
+    public void complete(long id) {
+        if (!isEnabled() || id <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            Segment segment = openEntries.remove(id);
+            if (segment == null || closed) {
+                return;
+            }
+            // Not waited for: losing it only means the review is repeated after a crash
+            writeRecord(COMPLETED, id, new byte[0]);
+            completed.incrementAndGet();
+            segment.open--;
+            deleteCompleted();
+        } catch (IOException e) {
+            log.warn("Failed to mark journal entry {} complete: {}", id, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long write(MergeRequestEvent event) throws IOException {
+        long id = nextId++;
+        writeRecord(ACCEPTED, id, encode(event));
+        openEntries.put(id, active);
+        active.open++;
+        return id;
+    }
+
+    private void writeRecord(byte type, long id, byte[] payload) throws IOException {
+        int length = 1 + 8 + payload.length;
+        // Keep room for the zero length that ends the segment
+        if (active == null || active.buffer.remaining() < HEADER + length + 4) {
+            roll(HEADER + length + 4);
+        }
+        ByteBuffer body = ByteBuffer.allocate(length).put(type).putLong(id).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        // The length goes last so that a torn record never looks complete
+        int position = active.buffer.position();
+        active.buffer.position(position + 4);
+        active.buffer.putInt((int) crc.getValue()).put(body.array());
+        active.buffer.putInt(position, length);
+        writtenId = Math.max(writtenId, id);
+        active.dirty = true;
+    }
+
+    private Segment roll(long minBytes) throws IOException {
+        Segment previous = active;
+        if (previous != null) {
+            force(previous);
+        }
+        long size = Math.max(segmentBytes, minBytes);
+        // Numbered past the segments of the previous run, which are only deleted once this one exists
+        long index = nextSegment++;
+        Path file = dir.resolve(String.format("%020d%s", index, SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            active = new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+        segments.put(index, active);
+        deleteCompleted();
+        return active;
+    }
+
+    private static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void force(Segment segment) {
+        if (segment.dirty) {
+            segment.buffer.force();
+            segment.dirty = false;
+            syncs.incrementAndGet();
+        }
+    }
+
+    /**
+     * Delete completed segments from the oldest on. A segment also holds the
+     * completion records of events in older segments, so it must outlive them.
+     */
+    private void deleteCompleted() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active || oldest.open > 0) {
+                return;
+            }
+            delete(oldest);
+        }
+    }
+
+    private void delete(Segment segment) {
+        segments.values().remove(segment);
+        try {
+            Files.deleteIfExists(segment.file);
+            deletedSegments.incrementAndGet();
+        } catch (IOException e) {
+            log.warn("Failed to delete journal segment {}: {}", segment.file, e.getMessage());
+        }
+    }
+
+    /**
+     * Group commit: force everything written so far with one sync per
+     * segment and release all appends it covers.
+     */
+    private void flushLoop() {
+        lock.lock();
+        try {
+            while (!closed) {
+                if (durableId >= writtenId) {
+                    dirty.awaitUninterruptibly();
+                    continue;
+                }
+                long target = writtenId;
+                List<Segment> pending = new ArrayList<>();
+                for (Segment segment : segments.values()) {
+                    if (segment.dirty) {
+                        segment.dirty = false;
+                        pending.add(segment);
+                    }
+                }
+                lock.unlock();
+                try {
+                    for (Segment segment : pending) {
+                        segment.buffer.force();
+                    }
+                    syncs.incrementAndGet();
+                } finally {
+                    lock.lock();
+                }
+                durableId = Math.max(durableId, target);
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void readSegment(Path file, Map<Long, MergeRequestEvent> open) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (buffer.remaining() >= HEADER) {
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining() - 4) {
+                break;
+            }
+            int crc = buffer.getInt();
+            byte[] body = new byte[length];
+            buffer.get(body);
+            CRC32 check = new CRC32();
+            check.update(body);
+            if ((int) check.getValue() != crc) {
+                log.warn("Torn record in journal segment {}; ignoring the rest of it", file);
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            long id = record.getLong();
+            nextId = Math.max(nextId, id + 1);
+            if (type == ACCEPTED) {
+                open.put(id, decode(record));
+            } else if (type == COMPLETED) {
+                open.remove(id);
+            }
+        }
+    }
+
+    static byte[] encode(MergeRequestEvent event) {
+        List<byte[]> strings = new ArrayList<>();
+        int size = 2 * 9;
+        for (String s : new String[]{event.action(), event.title(), event.description(), event.sourceBranch(),
+                event.headSha(), event.author()}) {
+            byte[] bytes = s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+            strings.add(bytes);
+            size += 4 + (bytes != null ? bytes.length : 0);
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        putLong(out, event.projectId());
+        putLong(out, event.mergeRequestIid());
+        for (byte[] bytes : strings) {
+            out.putInt(bytes != null ? bytes.length : -1);
+            if (bytes != null) out.put(bytes);
+        }
+        return out.array();
+    }
+
+    static MergeRequestEvent decode(ByteBuffer in) {
+        Long projectId = getLong(in);
+        Long iid = getLong(in);
+        String[] s = new String[6];
+        for (int i = 0; i < s.length; i++) {
+            int length = in.getInt();
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                in.get(bytes);
+                s[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return new MergeRequestEvent(projectId, iid, s[0], s[1], s[2], s[3], s[4], s[5]);
+    }
+
+    private static void putLong(ByteBuffer out, Long value) {
+        out.put((byte) (value != null ? 1 : 0)).putLong(value != null ? value : 0);
+    }
+
+    private static Long getLong(ByteBuffer in) {
+        boolean present = in.get() != 0;
+        long value = in.getLong();
+        return present ? value : null;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            for (Segment segment : segments.values()) {
+                force(segment);
+            }
+            durableId = writtenId;
+            closed = true;
+            dirty.signalAll();
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "intakeJournal";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        lock.lock();
+        try {
+            stats.put("segments", segments.size());
+            stats.put("openEntries", openEntries.size());
+        } finally {
+            lock.unlock();
+        }
+        long count = appended.get();
+        stats.put("appended", count);
+        stats.put("completed", completed.get());
+        stats.put("appendAvgMicros", count > 0 ? TimeUnit.NANOSECONDS.toMicros(appendNanos.get() / count) : 0);
+        stats.put("fsync", fsync);
+        stats.put("syncs", syncs.get());
+        stats.put("deletedSegments", deletedSegments.get());
+        return stats;
+    }
+
+    /**
+     * An open event recovered from a previous run.
+     *
+     * @param id the journal id of the event in this run
+     * @param event the event
+     */
+    public record Entry(long id, MergeRequestEvent event) {
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int open;
+        private boolean dirty;
+
+        private Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.aireviewer.service;
+
+import com.aireviewer.client.CancellationToken;
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.MergeRequestKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the review running for each merge request, so that starting the
+ * review of a newer event cancels the one still working on an outdated head.
+ * The cancelled review stops at its next check or outbound call and never
+ * publishes its note (see {@link CancellationToken}).
+ */
+@Component
+public class ReviewCancellations implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(ReviewCancellations.class);
+
+    private final ConcurrentHashMap<MergeRequestKey, CancellationToken> running = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Register a new review of a merge request and cancel the one it supersedes.
+     *
+     * @param key the merge request, {@code null} if unknown
+     * @return the token of the new review; {@link CancellationToken#NONE} if the key is {@code null}
+     */
+    public CancellationToken begin(MergeRequestKey key) {
+        if (key == null) {
+            return CancellationToken.NONE;
+        }
+        started.incrementAndGet();
+        CancellationToken token = new CancellationToken();
+        CancellationToken previous = running.put(key, token);
+        if (previous != null) {
+            // Waits if the previous review is publishing right now, so notes are never written out of order
+            previous.cancel();
+            cancelled.incrementAndGet();
+            log.info("Cancelled the running review of MR {}: superseded by a newer event", key);
+        }
+        return token;
+    }
+
+    /**
+     * Unregister a finished review.
+     *
+     * @param key the merge request, may be {@code null}
+     * @param token the token returned by {@link #begin(MergeRequestKey)}
+     */
+    public void end(MergeRequestKey key, CancellationToken token) {
+        if (key != null) {
+            running.remove(key, token);
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "reviewCancellation";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running.size());
+        stats.put("started", started.get());
+        stats.put("cancelled", cancelled.get());
+        return stats;
+    }
+}
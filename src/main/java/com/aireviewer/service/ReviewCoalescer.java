@@ -0,0 +1,289 @@
+package com.aireviewer.service;
+
+import com.aireviewer.client.CancellationToken;
+import com.aireviewer.client.RateLimitScheduler;
+import com.aireviewer.client.RateLimitScheduler.Priority;
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.MergeRequestEvent;
+import com.aireviewer.model.MergeRequestKey;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses bursts of merge request events into a single review. Each event
+ * is parked per {@link MergeRequestKey} for a quiet window
+ * ({@code review.coalesce.window-ms}); a newer event for the same MR replaces
+ * the parked one and restarts the window, so only the latest event is
+ * reviewed. The window is never extended past {@code review.coalesce.max-delay-ms}
+ * after the first parked event so a steady stream of pushes cannot starve an MR.
+ *
+ * <p>Events without a project id or iid, or any event when the window is 0,
+ * go straight to the {@link ReviewExecutor}.</p>
+ *
+ * <p>Every accepted event is first written to the {@link IntakeJournal}. Its
+ * entry is completed when its review has run, when a newer event replaces it
+ * or when the webhook is answered with 429; entries left open by a previous
+ * run are submitted again once the application is ready. An event the
+ * executor rejects after it was accepted stays journaled and is dispatched
+ * again {@value #RETRY_DELAY_MS} ms later. Replayed events are reviewed at
+ * {@link Priority#BULK}, so that they leave GitLab and Jira to the reviews
+ * developers are waiting for.</p>
+ *
+ * <p>When a review starts it cancels a review of the same MR that is still
+ * running (see {@link ReviewCancellations}).</p>
+ */
+@Component
+public class ReviewCoalescer implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(ReviewCoalescer.class);
+    private static final Runnable NOTHING = () -> { };
+    static final long RETRY_DELAY_MS = 1000;
+
+    private final ReviewExecutor reviewExecutor;
+    private final ReviewProcessor reviewProcessor;
+    private final IntakeJournal journal;
+    private final ReviewCancellations cancellations;
+    private final long windowMs;
+    private final long maxDelayMs;
+    private final ScheduledExecutorService timer;
+    private final ConcurrentHashMap<MergeRequestKey, Pending> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong retriedOnReject = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    ReviewCoalescer(ReviewExecutor reviewExecutor, ReviewProcessor reviewProcessor, long windowMs, long maxDelayMs) {
+        this(reviewExecutor, reviewProcessor, IntakeJournal.disabled(), new ReviewCancellations(), windowMs, maxDelayMs);
+    }
+
+    @Autowired
+    public ReviewCoalescer(ReviewExecutor reviewExecutor, ReviewProcessor reviewProcessor, IntakeJournal journal,
+                           ReviewCancellations cancellations,
+                           @Value("${review.coalesce.window-ms:2000}") long windowMs,
+                           @Value("${review.coalesce.max-delay-ms:10000}") long maxDelayMs) {
+        this.reviewExecutor = reviewExecutor;
+        this.reviewProcessor = reviewProcessor;
+        this.journal = journal;
+        this.cancellations = cancellations;
+        this.windowMs = windowMs;
+        this.maxDelayMs = Math.max(windowMs, maxDelayMs);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "review-coalescer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Accept a merge request event for review.
+     *
+     * @param event the merge request event
+     * @throws RejectedExecutionException if the event would start a new review
+     *         while the executor, or the project's share of it, is saturated
+     * @throws UncheckedIOException if the event could not be journaled
+     */
+    public void submit(MergeRequestEvent event) {
+        submit(event, NOTHING);
+    }
+
+    /**
+     * Accept a merge request event for review.
+     *
+     * @param event the merge request event
+     * @param onDropped run if the event is not reviewed after all: its review
+     *        failed or was cancelled, or a newer event replaced it
+     * @throws RejectedExecutionException if the event would start a new review
+     *         while the executor, or the project's share of it, is saturated
+     * @throws UncheckedIOException if the event could not be journaled
+     */
+    public void submit(MergeRequestEvent event, Runnable onDropped) {
+        received.incrementAndGet();
+        long journalId = journal.append(event);
+        try {
+            park(event, journalId, onDropped, Priority.INTERACTIVE);
+        } catch (RejectedExecutionException e) {
+            // The webhook is answered with 429 and GitLab delivers it again
+            journal.complete(journalId);
+            throw e;
+        }
+    }
+
+    /**
+     * Submit the events that a previous run had accepted but not finished.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayJournal() {
+        for (IntakeJournal.Entry entry : journal.takeRecovered()) {
+            replayed.incrementAndGet();
+            MergeRequestEvent event = entry.event();
+            try {
+                park(event, entry.id(), NOTHING, Priority.BULK);
+            } catch (RejectedExecutionException e) {
+                if (event.key() != null) {
+                    retryLater(event.key(), new Pending(event, entry.id(), NOTHING, Priority.BULK, System.nanoTime()));
+                } else {
+                    log.warn("Could not replay journaled event: review executor is saturated; it is kept for the next start");
+                }
+            }
+        }
+    }
+
+    private void park(MergeRequestEvent event, long journalId, Runnable onDropped, Priority priority) {
+        MergeRequestKey key = event.key();
+        if (key == null || windowMs <= 0) {
+            dispatch(event, journalId, onDropped, priority);
+            return;
+        }
+        pending.compute(key, (k, existing) -> {
+            long now = System.nanoTime();
+            if (existing == null) {
+                // Replayed events were accepted by the previous run and are not refused now
+                if (priority == Priority.INTERACTIVE && reviewExecutor.isSaturated(k.projectId())) {
+                    throw new RejectedExecutionException("Review executor is saturated");
+                }
+                Pending p = new Pending(event, journalId, onDropped, priority, now);
+                p.timer = schedule(k, p, windowMs);
+                return p;
+            }
+            // Replace the parked event; the older one will never be reviewed
+            existing.timer.cancel(false);
+            journal.complete(existing.journalId);
+            existing.onDropped.run();
+            existing.event = event;
+            existing.journalId = journalId;
+            existing.onDropped = onDropped;
+            existing.priority = priority;
+            coalesced.incrementAndGet();
+            long deadlineMs = TimeUnit.NANOSECONDS.toMillis(existing.firstSeenNanos - now) + maxDelayMs;
+            existing.timer = schedule(k, existing, Math.max(0, Math.min(windowMs, deadlineMs)));
+            log.debug("Coalesced event for MR {}", k);
+            return existing;
+        });
+    }
+
+    private ScheduledFuture<?> schedule(MergeRequestKey key, Pending p, long delayMs) {
+        return timer.schedule(() -> fire(key, p), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire(MergeRequestKey key, Pending p) {
+        if (!pending.remove(key, p)) {
+            return;
+        }
+        try {
+            dispatch(p.event, p.journalId, p.onDropped, p.priority);
+        } catch (RejectedExecutionException e) {
+            retryLater(key, p);
+        }
+    }
+
+    /**
+     * Park an event the executor rejected again, keeping its journal entry
+     * open, unless a newer event for the MR is already waiting.
+     */
+    private void retryLater(MergeRequestKey key, Pending p) {
+        retriedOnReject.incrementAndGet();
+        log.warn("Review executor is saturated; retrying the review of MR {} in {} ms", key, RETRY_DELAY_MS);
+        pending.compute(key, (k, existing) -> {
+            if (existing != null) {
+                journal.complete(p.journalId);
+                p.onDropped.run();
+                return existing;
+            }
+            p.timer = schedule(k, p, RETRY_DELAY_MS);
+            return p;
+        });
+    }
+
+    private void dispatch(MergeRequestEvent event, long journalId, Runnable onDropped, Priority priority) {
+        reviewExecutor.submit(event.projectId(), () -> review(event, journalId, onDropped, priority));
+        dispatched.incrementAndGet();
+    }
+
+    private void review(MergeRequestEvent event, long journalId, Runnable onDropped, Priority priority) {
+        MergeRequestKey key = event.isReviewable() ? event.key() : null;
+        CancellationToken token = cancellations.begin(key);
+        try {
+            boolean reviewed = RateLimitScheduler.callAs(priority,
+                    () -> CancellationToken.callWith(token, () -> reviewProcessor.handleMergeRequestEvent(event)));
+            if (!reviewed) {
+                onDropped.run();
+            }
+        } finally {
+            cancellations.end(key, token);
+            // A review cut short by shutdown stays open and is replayed on the next start
+            if (!Thread.currentThread().isInterrupted()) {
+                journal.complete(journalId);
+            }
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "reviewCoalescer";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMs", windowMs);
+        stats.put("pending", pending.size());
+        stats.put("received", received.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("dispatched", dispatched.get());
+        stats.put("retriedOnReject", retriedOnReject.get());
+        stats.put("replayed", replayed.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        // Flush parked events so they are not silently lost on a graceful stop
+        for (Map.Entry<MergeRequestKey, Pending> e : pending.entrySet()) {
+            if (pending.remove(e.getKey(), e.getValue())) {
+                try {
+                    Pending p = e.getValue();
+                    dispatch(p.event, p.journalId, p.onDropped, p.priority);
+                } catch (RejectedExecutionException ex) {
+                    log.warn("Could not flush coalesced review for MR {} on shutdown", e.getKey());
+                }
+            }
+        }
+    }
+
+    private static final class Pending {
+        private final long firstSeenNanos;
+        private volatile MergeRequestEvent event;
+        private volatile long journalId;
+        private volatile Runnable onDropped;
+        private volatile Priority priority;
+        private volatile ScheduledFuture<?> timer;
+
+        private Pending(MergeRequestEvent event, long journalId, Runnable onDropped, Priority priority,
+                        long firstSeenNanos) {
+            this.event = event;
+            this.journalId = journalId;
+            this.onDropped = onDropped;
+            this.priority = priority;
+            this.firstSeenNanos = firstSeenNanos;
+        }
+    }
+}
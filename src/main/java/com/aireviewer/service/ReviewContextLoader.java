@@ -0,0 +1,290 @@
+package com.aireviewer.service;
+
+import com.aireviewer.client.CancellationToken;
+import com.aireviewer.client.GitLabClient;
+import com.aireviewer.client.JiraClient;
+import com.aireviewer.client.JiraIssueCache;
+import com.aireviewer.client.RateLimitScheduler;
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.CompareResult;
+import com.aireviewer.model.DiffModel;
+import com.aireviewer.model.JiraContext;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Gathers the context a review needs from the external systems. All sources
+ * are fetched concurrently so that the latency of this step is that of the
+ * slowest source rather than the sum of all of them. Each source has its own
+ * deadline; a source that is late or fails is replaced by an empty fallback
+ * and the review proceeds with partial context. A fetch that missed its
+ * deadline is interrupted, so that it stops waiting for rate limits,
+ * concurrency slots and retries instead of holding on to its thread.
+ *
+ * <p>Fetches run on virtual threads when {@code review.executor.virtual-threads}
+ * is enabled, otherwise on a pool of {@code review.context.fetch-threads}
+ * daemon threads; further fetches wait for a free thread (within their
+ * deadline).</p>
+ */
+@Component
+public class ReviewContextLoader implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(ReviewContextLoader.class);
+
+    static final String SOURCE_JIRA = "jira";
+    static final String SOURCE_GITLAB_DIFFS = "gitlabDiffs";
+    static final String SOURCE_GITLAB_COMPARE = "gitlabCompare";
+
+    private final JiraClient jiraClient;
+    private final JiraIssueCache jiraCache;
+    private final GitLabClient gitLabClient;
+    private final ExecutorService executor;
+    private final long jiraTimeoutMs;
+    private final long gitLabTimeoutMs;
+    private final Map<String, AtomicLong> timeouts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ReviewContextLoader(JiraClient jiraClient, JiraIssueCache jiraCache, GitLabClient gitLabClient,
+                               @Value("${review.executor.virtual-threads:false}") boolean virtualThreads,
+                               @Value("${review.context.jira-timeout-ms:5000}") long jiraTimeoutMs,
+                               @Value("${review.context.gitlab-timeout-ms:10000}") long gitLabTimeoutMs,
+                               @Value("${review.context.fetch-threads:16}") int fetchThreads) {
+        this.jiraClient = jiraClient;
+        this.jiraCache = jiraCache;
+        this.gitLabClient = gitLabClient;
+        this.jiraTimeoutMs = jiraTimeoutMs;
+        this.gitLabTimeoutMs = gitLabTimeoutMs;
+        if (virtualThreads) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("context-fetch-vt-", 1).factory());
+        } else {
+            AtomicInteger counter = new AtomicInteger();
+            int threads = Math.max(1, fetchThreads);
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "context-fetch-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+    }
+
+    ReviewContextLoader(JiraClient jiraClient, JiraIssueCache jiraCache, GitLabClient gitLabClient,
+                        boolean virtualThreads, long jiraTimeoutMs, long gitLabTimeoutMs) {
+        this(jiraClient, jiraCache, gitLabClient, virtualThreads, jiraTimeoutMs, gitLabTimeoutMs, 16);
+    }
+
+    /**
+     * Fetch the Jira issues and the diff of a merge request in parallel. Never throws; missing sources are reported through
+     * {@link LoadedContext#missingSources()}.
+     *
+     * @param projectId the GitLab project id, may be {@code null}
+     * @param mergeRequestIid the MR iid, may be {@code null}
+     * @param jiraKeys the Jira keys referenced by the MR, the primary one first; may be empty
+     * @return the gathered context
+     */
+    public LoadedContext load(Long projectId, Long mergeRequestIid, List<String> jiraKeys) {
+        CompletableFuture<Outcome<JiraContext>> jira = fetchJira(jiraKeys);
+        CompletableFuture<Outcome<DiffModel>> diffs = fetchDiffs(projectId, mergeRequestIid);
+
+        List<String> missing = new ArrayList<>();
+        JiraContext jiraContext = join(jira, SOURCE_JIRA, missing);
+        DiffModel diff = join(diffs, SOURCE_GITLAB_DIFFS, missing);
+        return loaded(projectId, mergeRequestIid, jiraContext, diff, missing, null);
+    }
+
+    /**
+     * Like {@link #load(Long, Long, List)}, but only fetch the files changed
+     * between an already reviewed head and the new head of the merge request.
+     * The Jira issues and the comparison are fetched in parallel. If the
+     * comparison is unavailable or the branch was rewritten (the new head
+     * does not descend from the old one), the full diff is fetched instead and the result is not incremental.
+     *
+     * @param projectId the GitLab project id
+     * @param mergeRequestIid the MR iid
+     * @param jiraKeys the Jira keys referenced by the MR, the primary one first; may be empty
+     * @param baseSha the head that was reviewed last
+     * @param headSha the new head
+     * @return the gathered context; {@link LoadedContext#delta()} is set if it is incremental
+     */
+    public LoadedContext loadDelta(Long projectId, Long mergeRequestIid, List<String> jiraKeys, String baseSha, String headSha) {
+        CompletableFuture<Outcome<JiraContext>> jira = fetchJira(jiraKeys);
+        CompletableFuture<Outcome<CompareResult>> compare = baseSha.equals(headSha)
+                ? CompletableFuture.completedFuture(new Outcome<>(CompareResult.unchanged(), true))
+                : fetch(SOURCE_GITLAB_COMPARE, () -> gitLabClient.fetchCompare(projectId, baseSha, headSha),
+                        gitLabTimeoutMs, (CompareResult) null);
+
+        List<String> missing = new ArrayList<>();
+        CompareResult delta = compare.join().value();
+        if (delta != null && delta.fastForward()) {
+            JiraContext jiraContext = join(jira, SOURCE_JIRA, missing);
+            return loaded(projectId, mergeRequestIid, jiraContext, delta.diff(), missing, delta);
+        }
+        log.info("Cannot review MR projectId={}, iid={} incrementally from {}; fetching all changes", projectId,
+                mergeRequestIid, baseSha);
+        CompletableFuture<Outcome<DiffModel>> diffs = fetchDiffs(projectId, mergeRequestIid);
+        JiraContext jiraContext = join(jira, SOURCE_JIRA, missing);
+        DiffModel diff = join(diffs, SOURCE_GITLAB_DIFFS, missing);
+        return loaded(projectId, mergeRequestIid, jiraContext, diff, missing, null);
+    }
+
+    /**
+     * Resolve all keys with one search (minus the cached ones). The first key
+     * becomes the primary context, the other issues found are attached to it.
+     */
+    private CompletableFuture<Outcome<JiraContext>> fetchJira(List<String> jiraKeys) {
+        String primaryKey = jiraKeys.isEmpty() ? null : jiraKeys.get(0);
+        JiraContext emptyJira = new JiraContext(primaryKey, null, null, null, Collections.emptyList());
+        if (jiraKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(new Outcome<>(emptyJira, true));
+        }
+        return fetch(SOURCE_JIRA, () -> {
+            Map<String, JiraContext> issues = jiraCache.getAll(jiraKeys, jiraClient::searchIssues);
+            JiraContext primary = issues.getOrDefault(primaryKey, emptyJira);
+            List<JiraContext> related = new ArrayList<>();
+            for (JiraContext issue : issues.values()) {
+                if (!primaryKey.equals(issue.getKey())) related.add(issue);
+            }
+            return related.isEmpty() ? primary : primary.withRelatedIssues(related);
+        }, jiraTimeoutMs, emptyJira);
+    }
+
+    private CompletableFuture<Outcome<DiffModel>> fetchDiffs(Long projectId, Long mergeRequestIid) {
+        DiffModel emptyDiff = DiffModel.ofFiles(Collections.emptyList());
+        return projectId != null && mergeRequestIid != null
+                ? fetch(SOURCE_GITLAB_DIFFS, () -> gitLabClient.fetchDiffs(projectId, mergeRequestIid),
+                        gitLabTimeoutMs, emptyDiff)
+                : CompletableFuture.completedFuture(new Outcome<>(emptyDiff, true));
+    }
+
+    private static LoadedContext loaded(Long projectId, Long mergeRequestIid, JiraContext jiraContext, DiffModel diff,
+                                        List<String> missing, CompareResult delta) {
+        if (!missing.isEmpty()) {
+            log.warn("Proceeding with partial context for MR projectId={}, iid={}; missing: {}", projectId, mergeRequestIid, missing);
+        }
+        if (diff == null) {
+            diff = DiffModel.ofFiles(Collections.emptyList());
+        }
+        List<String> files = new ArrayList<>(diff.getFiles().size());
+        for (DiffModel.FileDiff file : diff.getFiles()) {
+            files.add(file.getPath());
+        }
+        return new LoadedContext(jiraContext, List.copyOf(files), diff, List.copyOf(missing), delta);
+    }
+
+    private <T> CompletableFuture<Outcome<T>> fetch(String source, Supplier<T> call, long timeoutMs, T fallback) {
+        // Calls made on the fetch threads keep the rate limit priority and the cancellation token of the caller
+        RateLimitScheduler.Priority priority = RateLimitScheduler.currentPriority();
+        CancellationToken token = CancellationToken.current();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                result.complete(CancellationToken.callWith(token, () -> RateLimitScheduler.callAs(priority, call)));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .handle((value, ex) -> {
+                    if (ex == null) {
+                        return new Outcome<>(value, true);
+                    }
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    if (cause instanceof TimeoutException) {
+                        // Nobody waits for it any more
+                        task.cancel(true);
+                        counter(timeouts, source).incrementAndGet();
+                        log.warn("Fetching {} exceeded its {} ms deadline", source, timeoutMs);
+                    } else {
+                        counter(failures, source).incrementAndGet();
+                        log.warn("Fetching {} failed: {}", source, cause.getMessage());
+                    }
+                    return new Outcome<>(fallback, false);
+                });
+    }
+
+    private static <T> T join(CompletableFuture<Outcome<T>> future, String source, List<String> missing) {
+        Outcome<T> outcome = future.join();
+        if (!outcome.complete()) {
+            missing.add(source);
+        }
+        return outcome.value();
+    }
+
+    private static AtomicLong counter(Map<String, AtomicLong> counters, String source) {
+        return counters.computeIfAbsent(source, s -> new AtomicLong());
+    }
+
+    @Override
+    public String statsName() {
+        return "reviewContext";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("jiraTimeoutMs", jiraTimeoutMs);
+        stats.put("gitLabTimeoutMs", gitLabTimeoutMs);
+        Map<String, Long> t = new LinkedHashMap<>();
+        timeouts.forEach((k, v) -> t.put(k, v.get()));
+        stats.put("timeouts", t);
+        Map<String, Long> f = new LinkedHashMap<>();
+        failures.forEach((k, v) -> f.put(k, v.get()));
+        stats.put("failures", f);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The context gathered for one review.
+     *
+     * @param jiraContext the primary Jira issue with the related ones attached,
+     *                    or an empty context if unavailable
+     * @param changedFiles the changed file paths, empty if unavailable
+     * @param diff the per-file diffs, empty if unavailable
+     * @param missingSources names of the sources that timed out or failed
+     * @param delta the comparison with the previously reviewed head when only
+     *              the files changed since then were loaded, otherwise {@code null}
+     */
+    public record LoadedContext(JiraContext jiraContext, List<String> changedFiles, DiffModel diff,
+                                List<String> missingSources, CompareResult delta) {
+        public boolean isPartial() {
+            return !missingSources.isEmpty();
+        }
+
+        public boolean isIncremental() {
+            return delta != null;
+        }
+    }
+
+    private record Outcome<T>(T value, boolean complete) {
+    }
+}
@@ -0,0 +1,386 @@
+package com.aireviewer.service;
+
+import com.aireviewer.metrics.StatsSource;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded worker pool that runs reviews off the HTTP request thread. The
+ * webhook controller enqueues work here and returns immediately; when both
+ * the workers and the queue are full the submission is rejected so that the
+ * caller can answer with 429 instead of blocking GitLab's delivery.
+ *
+ * <p>Waiting reviews are queued per GitLab project and free workers take
+ * them from the projects in turn (round-robin), so a project that floods the
+ * service with events cannot starve the others. A project runs at most
+ * {@code review.executor.project-max-concurrency} reviews at once and queues
+ * at most {@code review.executor.project-queue-capacity}; beyond that its
+ * submissions are rejected with a {@link ReviewRejectedException} that
+ * suggests when to retry.</p>
+ *
+ * <p>With {@code review.executor.virtual-threads=true} every review runs on its
+ * own virtual thread instead. Up to {@code review.executor.max-in-flight}
+ * reviews run at once and submissions beyond that are rejected; a project at
+ * its concurrency cap still queues its reviews, as in the pooled mode. All
+ * outbound calls made by a review (Jira, GitLab) happen on the review's
+ * thread and therefore also run virtual.</p>
+ */
+@Component
+public class ReviewExecutor implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(ReviewExecutor.class);
+    // Weight of the latest review in the moving average of review durations
+    private static final double DURATION_ALPHA = 0.2;
+
+    private final ExecutorService executor;
+    private final ThreadPoolExecutor platformPool;
+    private final boolean virtualThreads;
+    private final int queueCapacity;
+    private final int maxInFlight;
+    private final int workers;
+    private final int projectMaxConcurrency;
+    private final int projectQueueCapacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Keyed by project id; reviews without a project share the null entry
+    private final Map<Long, ProjectQueue> projects = new HashMap<>();
+    // Projects with waiting reviews, in the order they get their next turn
+    private final ArrayDeque<ProjectQueue> turns = new ArrayDeque<>();
+    private int running;
+    private int queued;
+    private boolean shutdown;
+    private double avgDurationMs;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong projectRejected = new AtomicLong();
+
+    @Autowired
+    public ReviewExecutor(@Value("${review.executor.threads:4}") int threads,
+                          @Value("${review.executor.queue-capacity:100}") int queueCapacity,
+                          @Value("${review.executor.virtual-threads:false}") boolean virtualThreads,
+                          @Value("${review.executor.max-in-flight:1000}") int maxInFlight,
+                          @Value("${review.executor.project-max-concurrency:2}") int projectMaxConcurrency,
+                          @Value("${review.executor.project-queue-capacity:20}") int projectQueueCapacity) {
+        this.virtualThreads = virtualThreads;
+        this.queueCapacity = queueCapacity;
+        this.maxInFlight = maxInFlight;
+        if (projectMaxConcurrency < 1 || projectQueueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "review.executor.project-max-concurrency and review.executor.project-queue-capacity must be positive");
+        }
+        this.projectMaxConcurrency = projectMaxConcurrency;
+        this.projectQueueCapacity = projectQueueCapacity;
+        if (virtualThreads) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("review.executor.max-in-flight must be positive");
+            }
+            this.platformPool = null;
+            this.workers = maxInFlight;
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("review-vt-", 1).factory());
+            log.info("Review executor started in virtual-thread mode with max {} in-flight reviews", maxInFlight);
+        } else {
+            if (threads < 1 || queueCapacity < 1) {
+                throw new IllegalArgumentException("review.executor.threads and review.executor.queue-capacity must be positive");
+            }
+            this.workers = threads;
+            // Reviews wait in the per-project queues; the pool only receives what a free worker can start
+            this.platformPool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), new ReviewThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+            this.executor = platformPool;
+            log.info("Review executor started with {} threads and queue capacity {}", threads, queueCapacity);
+        }
+    }
+
+    ReviewExecutor(int threads, int queueCapacity, boolean virtualThreads, int maxInFlight) {
+        this(threads, queueCapacity, virtualThreads, maxInFlight, Math.max(threads, maxInFlight), Math.max(1, queueCapacity));
+    }
+
+    /**
+     * Enqueue a review task of a project. Exceptions thrown by the task are
+     * logged and do not kill the worker.
+     *
+     * @param projectId the GitLab project the review belongs to, may be {@code null}
+     * @param task the work to run
+     * @throws ReviewRejectedException if the executor or the project's queue is full
+     * @throws RejectedExecutionException if the executor is shutting down
+     */
+    public void submit(Long projectId, Runnable task) {
+        Scheduled start;
+        lock.lock();
+        try {
+            if (shutdown) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("Review executor is shut down");
+            }
+            ProjectQueue project = projects.computeIfAbsent(projectId, ProjectQueue::new);
+            if (running < workers && project.running < projectMaxConcurrency) {
+                start = begin(project, task);
+            } else {
+                if (project.waiting.size() >= projectQueueCapacity) {
+                    rejected.incrementAndGet();
+                    projectRejected.incrementAndGet();
+                    throw new ReviewRejectedException("Review queue of project " + projectId + " is full",
+                            retryAfterSeconds(project));
+                }
+                // Virtual threads only wait for their project's turn, never for a free worker
+                if (virtualThreads ? running >= workers : queued >= queueCapacity) {
+                    rejected.incrementAndGet();
+                    throw new ReviewRejectedException(virtualThreads ? "Too many in-flight reviews" : "Review queue is full",
+                            retryAfterSeconds(project));
+                }
+                if (project.waiting.isEmpty()) {
+                    turns.addLast(project);
+                }
+                project.waiting.addLast(task);
+                queued++;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        execute(start);
+    }
+
+    private Scheduled begin(ProjectQueue project, Runnable task) {
+        running++;
+        project.running++;
+        return new Scheduled(project, task);
+    }
+
+    private void execute(Scheduled scheduled) {
+        try {
+            executor.execute(() -> run(scheduled));
+        } catch (RejectedExecutionException ex) {
+            finished(scheduled.project, -1);
+            rejected.incrementAndGet();
+            throw ex;
+        }
+    }
+
+    private void run(Scheduled scheduled) {
+        inFlight.incrementAndGet();
+        long startNanos = System.nanoTime();
+        try {
+            scheduled.task.run();
+        } catch (Exception ex) {
+            log.error("Review task failed: {}", ex.getMessage(), ex);
+        } finally {
+            inFlight.decrementAndGet();
+            Scheduled next = finished(scheduled.project, System.nanoTime() - startNanos);
+            while (next != null) {
+                Scheduled following = next;
+                try {
+                    executor.execute(() -> run(following));
+                    break;
+                } catch (RejectedExecutionException ex) {
+                    log.warn("Dropping queued review of project {}: executor is shut down", next.project.projectId);
+                    next = finished(next.project, -1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Release the slot of a finished review and take the next waiting review
+     * from the project whose turn it is.
+     *
+     * @return the review to start on the freed worker, or {@code null}
+     */
+    private Scheduled finished(ProjectQueue project, long durationNanos) {
+        lock.lock();
+        try {
+            running--;
+            project.running--;
+            if (durationNanos >= 0) {
+                double ms = durationNanos / 1_000_000.0;
+                avgDurationMs = avgDurationMs == 0 ? ms : avgDurationMs + DURATION_ALPHA * (ms - avgDurationMs);
+            }
+            Scheduled next = shutdown ? null : pollNext();
+            if (project.running == 0 && project.waiting.isEmpty()) {
+                projects.remove(project.projectId, project);
+            }
+            return next;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Scheduled pollNext() {
+        // Projects at their concurrency cap are skipped and keep their place at the back
+        for (int i = turns.size(); i > 0 && running < workers; i--) {
+            ProjectQueue project = turns.pollFirst();
+            if (project.running >= projectMaxConcurrency) {
+                turns.addLast(project);
+                continue;
+            }
+            Runnable task = project.waiting.pollFirst();
+            queued--;
+            if (!project.waiting.isEmpty()) {
+                turns.addLast(project);
+            }
+            return begin(project, task);
+        }
+        return null;
+    }
+
+    /**
+     * Estimate when a rejected submission of a project could be accepted:
+     * the time the project's queue needs to drain at its concurrency cap.
+     */
+    private long retryAfterSeconds(ProjectQueue project) {
+        int parallel = Math.max(1, Math.min(projectMaxConcurrency, workers));
+        double ms = Math.max(avgDurationMs, 1000) * (project.waiting.size() + 1) / parallel;
+        return Math.max(1, Math.min(300, (long) Math.ceil(ms / 1000)));
+    }
+
+    /**
+     * @return number of reviews waiting for a free worker; in virtual-thread
+     *         mode the number of running and waiting reviews
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return virtualThreads ? running + queued : queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param projectId the project of the submission, may be {@code null}
+     * @return {@code true} if a submission for the project made now would most likely be rejected
+     */
+    public boolean isSaturated(Long projectId) {
+        lock.lock();
+        try {
+            ProjectQueue project = projects.get(projectId);
+            int projectRunning = project != null ? project.running : 0;
+            int projectWaiting = project != null ? project.waiting.size() : 0;
+            if (running < workers && projectRunning < projectMaxConcurrency) {
+                return false;
+            }
+            return (virtualThreads ? running >= workers : queued >= queueCapacity)
+                    || projectWaiting >= projectQueueCapacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @Override
+    public String statsName() {
+        return "reviewExecutor";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", virtualThreads ? "virtual" : "platform");
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("inFlight", inFlight.get());
+        if (platformPool != null) {
+            stats.put("queueCapacity", queueCapacity);
+            stats.put("poolSize", platformPool.getPoolSize());
+            stats.put("completed", platformPool.getCompletedTaskCount());
+        } else {
+            stats.put("maxInFlight", maxInFlight);
+        }
+        stats.put("rejected", rejected.get());
+        stats.put("projectRejected", projectRejected.get());
+        stats.put("projectMaxConcurrency", projectMaxConcurrency);
+        stats.put("projectQueueCapacity", projectQueueCapacity);
+        Map<String, Object> active = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("avgReviewMs", Math.round(avgDurationMs));
+            projects.forEach((id, project) -> active.put(String.valueOf(id),
+                    Map.of("running", project.running, "queued", project.waiting.size())));
+        } finally {
+            lock.unlock();
+        }
+        stats.put("projects", active);
+        return stats;
+    }
+
+    /**
+     * Stop accepting work and give queued reviews a short grace period to
+     * finish before the application context closes.
+     */
+    @PreDestroy
+    public void shutdown() {
+        List<Scheduled> remaining = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            // Hand every waiting review to the pool so that it drains in the grace period below
+            for (ProjectQueue project : turns) {
+                for (Runnable task : project.waiting) {
+                    remaining.add(begin(project, task));
+                }
+                queued -= project.waiting.size();
+                project.waiting.clear();
+            }
+            turns.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Scheduled scheduled : remaining) {
+            executor.execute(() -> run(scheduled));
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Review executor did not drain in time; {} queued reviews dropped", executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class ProjectQueue {
+        private final Long projectId;
+        private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+        private int running;
+
+        private ProjectQueue(Long projectId) {
+            this.projectId = projectId;
+        }
+    }
+
+    private record Scheduled(ProjectQueue project, Runnable task) {
+    }
+
+    private static final class ReviewThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "review-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
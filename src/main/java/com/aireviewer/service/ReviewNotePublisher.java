@@ -0,0 +1,211 @@
+package com.aireviewer.service;
+
+import com.aireviewer.client.GitLabClient;
+import com.aireviewer.i18n.Messages;
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.AIReviewComment;
+import com.aireviewer.model.MergeRequestKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps a single AI review note per merge request. The first review is
+ * posted as a new note; later reviews edit that note in place, and a review
+ * that renders exactly like the one already shown is not written at all. This
+ * avoids a new comment (and notification email) for every push.
+ *
+ * The note ID and a hash of its body are remembered per merge request, bounded
+ * by {@code review.notes.max-entries}. A merge request that is not known here,
+ * e.g. after a restart, is looked up among its notes by the summary heading
+ * before a new note is created.
+ *
+ * Reviews are never rendered into a string: the body hash and the request
+ * bodies are written as the Markdown is rendered, the hash in the same pass
+ * that measures the review (so it covers the full review even when the note
+ * is shortened). A review longer than
+ * GitLab's note limit ({@code gitlab.note.max-chars}) is shortened by
+ * collapsing its low-priority sections, see
+ * {@link AIReviewComment#writeMarkdown(Appendable, int)}.
+ */
+@Component
+public class ReviewNotePublisher implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(ReviewNotePublisher.class);
+
+    private final GitLabClient gitLabClient;
+    private final int maxEntries;
+    private final int maxChars;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<MergeRequestKey, PublishedNote> notes = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong updated = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+
+    ReviewNotePublisher(GitLabClient gitLabClient, int maxEntries) {
+        this(gitLabClient, maxEntries, 1_000_000);
+    }
+
+    @Autowired
+    public ReviewNotePublisher(GitLabClient gitLabClient,
+                               @Value("${review.notes.max-entries:1000}") int maxEntries,
+                               @Value("${gitlab.note.max-chars:1000000}") int maxChars) {
+        this.gitLabClient = gitLabClient;
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Show a rendered review on a merge request, creating, updating or
+     * keeping its note as needed. Failures are logged by the client.
+     *
+     * @param projectId the ID of the project
+     * @param mergeRequestIid the internal ID of the merge request
+     * @param review the review to render
+     */
+    public void publish(Long projectId, Long mergeRequestIid, AIReviewComment review) {
+        MergeRequestKey key = new MergeRequestKey(projectId, mergeRequestIid);
+        MessageDigest digest = sha256();
+        AIReviewComment.Layout layout = layout(review, digest);
+        String hash = HexFormat.of().formatHex(digest.digest());
+        GitLabClient.NoteBody markdown = layout::writeTo;
+        PublishedNote note = get(key);
+        if (note != null && note.bodyHash().equals(hash)) {
+            unchanged.incrementAndGet();
+            log.info("Review note {} on MR projectId={}, iid={} is unchanged", note.noteId(), projectId, mergeRequestIid);
+            return;
+        }
+        Long noteId = note != null ? note.noteId()
+                : gitLabClient.findMergeRequestNote(projectId, mergeRequestIid, Messages.get("heading.summary"));
+        if (noteId != null) {
+            GitLabClient.NoteUpdate result = gitLabClient.updateMergeRequestNote(projectId, mergeRequestIid, noteId, markdown);
+            if (result == GitLabClient.NoteUpdate.UPDATED) {
+                updated.incrementAndGet();
+                put(key, new PublishedNote(noteId, hash));
+                return;
+            }
+            remove(key);
+            if (result == GitLabClient.NoteUpdate.FAILED) {
+                return;
+            }
+        }
+        noteId = gitLabClient.postMergeRequestComment(projectId, mergeRequestIid, markdown);
+        if (noteId != null) {
+            created.incrementAndGet();
+            put(key, new PublishedNote(noteId, hash));
+        }
+    }
+
+    /**
+     * Forget the note of a merge request that was merged or closed.
+     *
+     * @param key the merge request
+     */
+    public void forget(MergeRequestKey key) {
+        remove(key);
+    }
+
+    private PublishedNote get(MergeRequestKey key) {
+        lock.lock();
+        try {
+            return notes.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(MergeRequestKey key, PublishedNote note) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            notes.put(key, note);
+            Iterator<Map.Entry<MergeRequestKey, PublishedNote>> it = notes.entrySet().iterator();
+            while (notes.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(MergeRequestKey key) {
+        lock.lock();
+        try {
+            notes.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Measure the review to fit the note limit, hashing the full review in
+     * the same rendering pass.
+     */
+    private AIReviewComment.Layout layout(AIReviewComment review, MessageDigest digest) {
+        try {
+            // The encoder's buffer is all that is held of the rendered review
+            Writer writer = new OutputStreamWriter(new DigestOutputStream(OutputStream.nullOutputStream(), digest),
+                    StandardCharsets.UTF_8);
+            AIReviewComment.Layout layout = review.layout(maxChars, writer);
+            writer.flush();
+            return layout;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "reviewNotes";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int size;
+        lock.lock();
+        try {
+            size = notes.size();
+        } finally {
+            lock.unlock();
+        }
+        stats.put("size", size);
+        stats.put("maxEntries", maxEntries);
+        stats.put("maxChars", maxChars);
+        stats.put("created", created.get());
+        stats.put("updated", updated.get());
+        stats.put("unchanged", unchanged.get());
+        return stats;
+    }
+
+    private record PublishedNote(Long noteId, String bodyHash) {
+    }
+}
@@ -1,162 +1,186 @@
 package com.aireviewer.service;
 
-import com.aireviewer.client.GitLabClient;
-import com.aireviewer.client.JiraClient;
+import com.aireviewer.client.CancellationToken;
 import com.aireviewer.model.AIReviewComment;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
+import com.aireviewer.model.MergeRequestEvent;
+import com.aireviewer.model.MergeRequestKey;
 import com.aireviewer.notify.Notifier;
+import com.aireviewer.rules.RuleCatalog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * The ReviewProcessor orchestrates the end‑to‑end workflow whenever a merge
- * request webhook event is received. It extracts the necessary data from
- * the payload, retrieves additional context from Jira and GitLab, invokes
- * the aggregator service and finally posts the resulting comment back to
- * GitLab. Errors are logged but do not throw exceptions to avoid blocking
+ * request webhook event is received. It takes the necessary data from
+ * the parsed event, retrieves additional context from Jira and GitLab (in parallel,
+ * through the {@link ReviewContextLoader}), invokes
+ * the aggregator service and finally publishes the resulting comment on
+ * GitLab (one note per merge request, see {@link ReviewNotePublisher}). Errors are logged but do not throw exceptions to avoid blocking
  * CI/CD pipelines.
+ *
+ * <p>Once a merge request has been reviewed, update events are reviewed
+ * incrementally: only the files changed since the last reviewed head commit
+ * are analysed and the findings are merged into the previous review (see
+ * {@link ReviewStateStore}).</p>
+ *
+ * <p>A review whose {@link CancellationToken} is cancelled, because a newer
+ * event for the MR is being reviewed, stops between its steps and never
+ * publishes its note.</p>
  */
 @Service
 public class ReviewProcessor {
     private static final Logger log = LoggerFactory.getLogger(ReviewProcessor.class);
 
     private final AggregatorService aggregatorService;
-    private final JiraClient jiraClient;
-    private final GitLabClient gitLabClient;
+    private final ReviewContextLoader contextLoader;
+    private final ReviewNotePublisher notePublisher;
     private final Notifier notifier;
+    private final RuleCatalog ruleCatalog;
+    private final ReviewResultCache resultCache;
+    private final ReviewStateStore reviewState;
 
     private static final Pattern JIRA_KEY_PATTERN = Pattern.compile("[A-Z][A-Z0-9]+-\\d+");
+    private static final int MAX_JIRA_KEYS = 10;
 
-    public ReviewProcessor(AggregatorService aggregatorService, JiraClient jiraClient, GitLabClient gitLabClient, Notifier notifier) {
+    public ReviewProcessor(AggregatorService aggregatorService, ReviewContextLoader contextLoader, ReviewNotePublisher notePublisher,
+                           Notifier notifier, RuleCatalog ruleCatalog, ReviewResultCache resultCache,
+                           ReviewStateStore reviewState) {
         this.aggregatorService = aggregatorService;
-        this.jiraClient = jiraClient;
-        this.gitLabClient = gitLabClient;
+        this.contextLoader = contextLoader;
+        this.notePublisher = notePublisher;
         this.notifier = notifier;
+        this.ruleCatalog = ruleCatalog;
+        this.resultCache = resultCache;
+        this.reviewState = reviewState;
     }
 
     /**
-     * Entry point for processing merge request events. The payload shape is
-     * defined by GitLab's webhook documentation. Only a subset of fields are
-     * consumed here. Any errors encountered during processing are logged and
-     * will not throw an exception to the caller.
+     * Drop what is kept about a merge request that was merged or closed: the
+     * base of its incremental reviews and the id of its review note.
      *
-     * @param payload the raw webhook payload deserialised into a map
+     * @param key the merge request
      */
-    public void handleMergeRequestEvent(Map<String, Object> payload) {
+    public void forget(MergeRequestKey key) {
+        reviewState.remove(key);
+        notePublisher.forget(key);
+        log.info("Forgot review state of closed MR projectId={}, iid={}", key.projectId(), key.mergeRequestIid());
+    }
+
+    /**
+     * Entry point for processing merge request events. Only {@code open} and
+     * {@code update} events are reviewed. Any errors encountered during
+     * processing are logged and will not throw an exception to the caller.
+     *
+     * @param event the merge request event parsed from the webhook payload
+     * @return {@code false} if the review failed or was cancelled, {@code true} otherwise
+     */
+    public boolean handleMergeRequestEvent(MergeRequestEvent event) {
         try {
             log.info("Received merge request event");
-            // Validate event type and action
-            Object kind = payload.get("object_kind");
-            if (!(kind instanceof String) || !"merge_request".equals(kind)) {
-                log.info("Ignoring event: object_kind={}", kind);
-                return;
-            }
-            Object oaRaw = payload.get("object_attributes");
-            if (!(oaRaw instanceof Map<?,?>)) {
-                log.warn("No object_attributes found or wrong type in webhook payload");
-                return;
-            }
-            Map<?,?> oa = (Map<?,?>) oaRaw;
-            String action = null;
-            Object act = oa.get("action");
-            if (act instanceof String s) action = s;
-            if (action == null || !(action.equals("open") || action.equals("update"))) {
+            String action = event.action();
+            if (!event.isReviewable()) {
                 log.info("Ignoring MR action: {}", action);
-                return;
-            }
-
-            // Extract basic merge request attributes with null-safety
-            Map<String, Object> project = null;
-            Object prj = payload.get("project");
-            if (prj instanceof Map<?,?> pmap) {
-                //noinspection unchecked
-                project = (Map<String, Object>) pmap;
+                return true;
             }
-            Map<String, Object> user = null;
-            Object usr = payload.get("user");
-            if (usr instanceof Map<?,?> umap) {
-                //noinspection unchecked
-                user = (Map<String, Object>) umap;
+            Long projectId = event.projectId();
+            Long iid = event.mergeRequestIid();
+            String title = event.title();
+            String description = event.description();
+            String author = event.author();
+            // Collect Jira keys from title, description and branch; the first one found is the primary issue
+            Set<String> jiraKeys = new LinkedHashSet<>();
+            for (String text : new String[]{title, description, event.sourceBranch()}) {
+                if (text == null) continue;
+                Matcher m = JIRA_KEY_PATTERN.matcher(text);
+                while (m.find() && jiraKeys.size() < MAX_JIRA_KEYS) {
+                    jiraKeys.add(m.group());
+                }
             }
-
-            Long projectId = null;
-            Object pid1 = project != null ? project.get("id") : null;
-            if (pid1 instanceof Number n1) {
-                projectId = n1.longValue();
+            String headSha = event.headSha();
+            MergeRequestKey key = event.key();
+            ReviewStateStore.ReviewState previous = key != null && headSha != null && action.equals("update")
+                    ? reviewState.get(key) : null;
+            // Fetch Jira issue and diff concurrently; either may fall back to empty.
+            // After a plain push only the files changed since the last reviewed head are fetched.
+            ReviewContextLoader.LoadedContext loaded = previous != null
+                    ? contextLoader.loadDelta(projectId, iid, List.copyOf(jiraKeys), previous.headSha(), headSha)
+                    : contextLoader.load(projectId, iid, List.copyOf(jiraKeys));
+            CancellationToken token = CancellationToken.current();
+            // Cancelled while loading: the missing sources are not worth a review
+            token.throwIfCancelled();
+            JiraContext jiraContext = loaded.jiraContext();
+            List<String> changedFiles = loaded.changedFiles();
+            MergeRequestContext mrContext = new MergeRequestContext(projectId, iid, author, title, description,
+                    changedFiles, loaded.diff(), ruleCatalog.current());
+            AIReviewComment reviewed;
+            if (loaded.isIncremental()) {
+                AIReviewComment delta = aggregatorService.review(mrContext, jiraContext);
+                reviewed = previous.comment().withDelta(delta, loaded.delta().touchedPaths());
+                reviewState.recordIncrementalReview(changedFiles.size());
+                log.info("Reviewed {} file(s) changed since {} for MR projectId={}, iid={}", changedFiles.size(),
+                        previous.headSha(), projectId, iid);
             } else {
-                Object pid2 = oa.get("target_project_id");
-                if (pid2 instanceof Number n2) projectId = n2.longValue();
-            }
-            Long iid = null;
-            Object iidObj = oa.get("iid");
-            if (iidObj instanceof Number n) iid = n.longValue();
-            String title = null;
-            Object t = oa.get("title");
-            if (t instanceof String s) title = s;
-            String description = null;
-            Object d = oa.get("description");
-            if (d instanceof String s) description = s;
-            String author = null;
-            if (user != null) {
-                Object nm = user.get("name");
-                if (nm instanceof String s) author = s;
-            }
-            // Determine Jira key from title if present
-            String jiraKey = null;
-            if (title != null) {
-                Matcher m = JIRA_KEY_PATTERN.matcher(title);
-                if (m.find()) {
-                    jiraKey = m.group();
+                // Run agents unless an identical review has been produced before
+                String cacheKey = resultCache.isEnabled()
+                        ? resultCache.keyFor(mrContext, jiraContext, aggregatorService.getAgentsVersion()) : null;
+                reviewed = cacheKey != null ? resultCache.get(cacheKey) : null;
+                if (reviewed == null) {
+                    reviewed = aggregatorService.review(mrContext, jiraContext);
+                    // Reviews built from partial context are not cached so that the next event retries the missing source
+                    if (cacheKey != null && !loaded.isPartial()) {
+                        resultCache.put(cacheKey, reviewed);
+                    }
+                } else {
+                    log.info("Reusing cached review for MR projectId={}, iid={}", projectId, iid);
                 }
+                reviewState.recordFullReview();
             }
-            JiraContext jiraContext = jiraClient.fetchIssue(jiraKey);
-            // Retrieve changed files from GitLab (may be empty)
-            List<String> changedFiles = Collections.emptyList();
-            if (projectId != null && iid != null) {
-                changedFiles = gitLabClient.fetchChangedFiles(projectId, iid);
-            }
-            // For MVP we set diff equal to joined file names. In real implementation you'd fetch the diff.
-            String diff = String.join("\n", changedFiles);
-            MergeRequestContext mrContext = new MergeRequestContext(projectId, iid, author, title, description, changedFiles, diff);
-            // Run agents
-            AIReviewComment comment = aggregatorService.review(mrContext, jiraContext);
-            // Post comment back to GitLab if possible
+            // Remember the review as the base for the next push; partial reviews are redone from the older base
+            ReviewStateStore.ReviewState state = key != null && headSha != null && !loaded.isPartial()
+                    ? new ReviewStateStore.ReviewState(headSha, reviewed) : null;
+            // Create or update the review note on GitLab if possible
             if (projectId != null && iid != null) {
-                gitLabClient.postMergeRequestComment(projectId, iid, comment.toMarkdown());
-                log.info("Posted AI-Reviewer comment to MR projectId={}, iid={}", projectId, iid);
+                AIReviewComment body = reviewed;
+                // A superseded review must not become the base of the newer one either
+                token.runUnlessCancelled(() -> {
+                    if (state != null) {
+                        reviewState.put(key, state);
+                    }
+                    notePublisher.publish(projectId, iid, body);
+                });
+                log.info("Published AI-Reviewer comment to MR projectId={}, iid={}", projectId, iid);
             } else {
                 log.warn("Missing projectId or iid; skipping posting comment");
             }
+            return true;
+        } catch (CancellationException ex) {
+            log.info("Review of MR projectId={}, iid={} was superseded by a newer event; not publishing",
+                    event.projectId(), event.mergeRequestIid());
+            return false;
         } catch (Exception ex) {
             // Catch all exceptions to prevent pipeline failures
             log.error("Error processing merge request event: {}", ex.getMessage(), ex);
             try {
-                Long projectId = null;
-                Long iid = null;
-                Object oa = payload.get("object_attributes");
-                if (oa instanceof Map<?, ?> oaMap) {
-                    Object pid = ((Map<?, ?>) oaMap).get("target_project_id");
-                    if (pid instanceof Number n) projectId = n.longValue();
-                    Object iidObj2 = ((Map<?, ?>) oaMap).get("iid");
-                    if (iidObj2 instanceof Number n2) iid = n2.longValue();
-                }
                 String subject = "AI-Reviewer failure";
                 String body = String.format("Review failed. MR: projectId=%s, iid=%s. Reason: %s",
-                        String.valueOf(projectId), String.valueOf(iid), ex.getMessage());
+                        String.valueOf(event.projectId()), String.valueOf(event.mergeRequestIid()), ex.getMessage());
                 if (notifier != null) {
                     notifier.notifyAdmin(subject, body);
                 }
             } catch (Exception notifyEx) {
                 log.error("Failed to send admin notification: {}", notifyEx.getMessage(), notifyEx);
             }
+            return false;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.aireviewer.service;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link ReviewExecutor} when a review cannot be queued. Carries
+ * an estimate of when the submission is likely to be accepted, which the
+ * webhook controller passes to GitLab as {@code Retry-After}.
+ */
+public class ReviewRejectedException extends RejectedExecutionException {
+    private final long retryAfterSeconds;
+
+    public ReviewRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
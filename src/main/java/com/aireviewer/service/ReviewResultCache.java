@@ -0,0 +1,246 @@
+package com.aireviewer.service;
+
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.AIReviewComment;
+import com.aireviewer.model.DiffModel;
+import com.aireviewer.model.JiraContext;
+import com.aireviewer.model.MergeRequestContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed cache of finished reviews. The key is a SHA-256 hash of
+ * everything the agents look at: the diff, the changed files, the Jira
+ * fields, the rule set version and the agent line-up. Re-pushes of the same
+ * commits, retargeted branches and re-delivered webhooks therefore hit the
+ * cache and skip the agents. Reviews are kept unrendered; they are streamed
+ * as Markdown when published.
+ *
+ * The cache is bounded by {@code review.cache.max-entries} (least recently
+ * used entries are evicted first) and by {@code review.cache.ttl-seconds}.
+ * Setting the size to 0 disables it.
+ */
+@Component
+public class ReviewResultCache implements StatsSource {
+    private static final int HASH_BUFFER = 8192;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public ReviewResultCache(@Value("${review.cache.max-entries:500}") int maxEntries,
+                             @Value("${review.cache.ttl-seconds:3600}") long ttlSeconds) {
+        this(maxEntries, ttlSeconds, Clock.systemUTC());
+    }
+
+    ReviewResultCache(int maxEntries, long ttlSeconds, Clock clock) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Compute the cache key for a review.
+     *
+     * @param mrContext the merge request context
+     * @param jiraContext the Jira context, may be {@code null}
+     * @param agentsVersion identifies the registered agents and their order
+     * @return hex encoded SHA-256 key
+     */
+    public String keyFor(MergeRequestContext mrContext, JiraContext jiraContext, String agentsVersion) {
+        KeyHasher hasher = new KeyHasher();
+        hasher.add(agentsVersion);
+        hasher.add(mrContext.getRuleSet() != null ? mrContext.getRuleSet().getVersion() : null);
+        if (mrContext.getDiff() != null || mrContext.getDiffModel() == null) {
+            hasher.add(mrContext.getDiff());
+        } else {
+            // Diff fetched file by file: hash the lines in place instead of joining them
+            List<DiffModel.FileDiff> diffs = mrContext.getDiffModel().getFiles();
+            hasher.add(diffs.size());
+            for (DiffModel.FileDiff file : diffs) {
+                hasher.add(file.getOldPath());
+                hasher.add(file.getNewPath());
+                hasher.add(file.getLineCount());
+                for (int i = 0; i < file.getLineCount(); i++) hasher.add(file.line(i));
+            }
+        }
+        List<String> files = mrContext.getChangedFiles();
+        hasher.add(files != null ? files.size() : -1);
+        if (files != null) {
+            for (String file : files) hasher.add(file);
+        }
+        addJira(hasher, jiraContext);
+        return hasher.finish();
+    }
+
+    private static void addJira(KeyHasher hasher, JiraContext jiraContext) {
+        if (jiraContext == null) {
+            hasher.add(-1);
+            return;
+        }
+        hasher.add(jiraContext.getKey());
+        hasher.add(jiraContext.getSummary());
+        hasher.add(jiraContext.getDescription());
+        hasher.add(jiraContext.getIssueType());
+        List<String> comments = jiraContext.getComments();
+        hasher.add(comments != null ? comments.size() : -1);
+        if (comments != null) {
+            for (String c : comments) hasher.add(c);
+        }
+        List<JiraContext> related = jiraContext.getRelatedIssues();
+        hasher.add(related != null ? related.size() : -1);
+        if (related != null) {
+            for (JiraContext r : related) addJira(hasher, r);
+        }
+    }
+
+    /**
+     * @param key the cache key
+     * @return the stored review, or {@code null} on a miss or expired entry
+     */
+    public AIReviewComment get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && clock.millis() - entry.createdAt > ttlMillis) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+                entry = null;
+            }
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.review;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Store a review, evicting the least recently used entry when the cache
+     * is full. The review must not be modified afterwards.
+     */
+    public void put(String key, AIReviewComment review) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            entries.put(key, new Entry(review, clock.millis()));
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String statsName() {
+        return "reviewCache";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        stats.put("size", size);
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private record Entry(AIReviewComment review, long createdAt) {
+    }
+
+    /**
+     * Feeds values into SHA-256 through a small reusable buffer, so hashing a
+     * multi-megabyte diff does not allocate a byte copy of it. Every value is
+     * length-prefixed to keep adjacent fields from running into each other.
+     */
+    private static final class KeyHasher {
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[HASH_BUFFER];
+        private int position;
+
+        private KeyHasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void add(int value) {
+            ensure(4);
+            buffer[position++] = (byte) (value >>> 24);
+            buffer[position++] = (byte) (value >>> 16);
+            buffer[position++] = (byte) (value >>> 8);
+            buffer[position++] = (byte) value;
+        }
+
+        private void add(CharSequence value) {
+            if (value == null) {
+                add(-1);
+                return;
+            }
+            add(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                ensure(2);
+                char c = value.charAt(i);
+                buffer[position++] = (byte) (c >>> 8);
+                buffer[position++] = (byte) c;
+            }
+        }
+
+        private void ensure(int bytes) {
+            if (position + bytes > buffer.length) {
+                digest.update(buffer, 0, position);
+                position = 0;
+            }
+        }
+
+        private String finish() {
+            digest.update(buffer, 0, position);
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+}
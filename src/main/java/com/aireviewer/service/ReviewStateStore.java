@@ -0,0 +1,130 @@
+package com.aireviewer.service;
+
+import com.aireviewer.metrics.StatsSource;
+import com.aireviewer.model.AIReviewComment;
+import com.aireviewer.model.MergeRequestKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers, per merge request, the head commit that was reviewed last and
+ * the review produced for it. An update event can then be reviewed
+ * incrementally: only the files changed since that head are analysed and the
+ * findings are merged into the remembered review.
+ *
+ * The state lives in memory and is bounded by
+ * {@code review.incremental.max-entries} (least recently reviewed merge
+ * requests are forgotten first). A forgotten or unknown merge request simply
+ * gets a full review. Setting the size to 0 disables incremental reviews.
+ */
+@Component
+public class ReviewStateStore implements StatsSource {
+    private final int maxEntries;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<MergeRequestKey, ReviewState> states = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong fullReviews = new AtomicLong();
+    private final AtomicLong incrementalReviews = new AtomicLong();
+    private final AtomicLong filesReviewedIncrementally = new AtomicLong();
+
+    public ReviewStateStore(@Value("${review.incremental.max-entries:1000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * @param key the merge request
+     * @return the last reviewed state, or {@code null} if unknown
+     */
+    public ReviewState get(MergeRequestKey key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        lock.lock();
+        try {
+            return states.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the review of a head commit. The comment must not be modified
+     * afterwards.
+     */
+    public void put(MergeRequestKey key, ReviewState state) {
+        if (!isEnabled()) {
+            return;
+        }
+        lock.lock();
+        try {
+            states.put(key, state);
+            Iterator<Map.Entry<MergeRequestKey, ReviewState>> it = states.entrySet().iterator();
+            while (states.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forget a merge request, e.g. once it is merged or closed.
+     */
+    public void remove(MergeRequestKey key) {
+        lock.lock();
+        try {
+            states.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void recordFullReview() {
+        fullReviews.incrementAndGet();
+    }
+
+    void recordIncrementalReview(int files) {
+        incrementalReviews.incrementAndGet();
+        filesReviewedIncrementally.addAndGet(files);
+    }
+
+    @Override
+    public String statsName() {
+        return "reviewState";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int size;
+        lock.lock();
+        try {
+            size = states.size();
+        } finally {
+            lock.unlock();
+        }
+        stats.put("size", size);
+        stats.put("maxEntries", maxEntries);
+        stats.put("fullReviews", fullReviews.get());
+        stats.put("incrementalReviews", incrementalReviews.get());
+        stats.put("filesReviewedIncrementally", filesReviewedIncrementally.get());
+        return stats;
+    }
+
+    /**
+     * @param headSha the reviewed head commit
+     * @param comment the review of the merge request at that commit
+     */
+    public record ReviewState(String headSha, AIReviewComment comment) {
+    }
+}
@@ -0,0 +1,108 @@
+package com.aireviewer.service;
+
+import com.aireviewer.metrics.StatsSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports virtual threads that block while pinned to their carrier, which
+ * happens when a review parks inside a {@code synchronized} block or a native
+ * frame (e.g. a blocking HTTP or SMTP call in a library that still uses
+ * monitors). Pinned parks silently turn the virtual-thread executor back into
+ * a small platform pool, so each occurrence is logged with the offending
+ * frames and counted on {@code /stats}.
+ *
+ * <p>Backed by the JFR {@code jdk.VirtualThreadPinned} event; enabled with
+ * {@code review.executor.pinning-diagnostics=true}. For a one-off check the
+ * JVM flag {@code -Djdk.tracePinnedThreads=full} gives the same information on
+ * stdout.</p>
+ */
+@Component
+public class VirtualThreadPinningMonitor implements StatsSource {
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_LOGGED_FRAMES = 8;
+
+    private final boolean enabled;
+    private final Duration threshold;
+    private final AtomicLong pinnedEvents = new AtomicLong();
+    private final AtomicLong pinnedNanos = new AtomicLong();
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(@Value("${review.executor.pinning-diagnostics:false}") boolean enabled,
+                                       @Value("${review.executor.pinning-threshold-ms:20}") long thresholdMs) {
+        this.enabled = enabled;
+        this.threshold = Duration.ofMillis(thresholdMs);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+            stream.onEvent(PINNED_EVENT, this::onPinned);
+            stream.startAsync();
+            log.info("Virtual thread pinning diagnostics enabled (threshold {} ms)", threshold.toMillis());
+        } catch (Exception | LinkageError e) {
+            log.warn("Could not start virtual thread pinning diagnostics: {}", e.getMessage());
+            stream = null;
+        }
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedEvents.incrementAndGet();
+        pinnedNanos.addAndGet(event.getDuration().toNanos());
+        StringBuilder frames = new StringBuilder();
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace != null) {
+            List<RecordedFrame> recorded = stackTrace.getFrames();
+            for (int i = 0; i < recorded.size() && i < MAX_LOGGED_FRAMES; i++) {
+                RecordedFrame frame = recorded.get(i);
+                frames.append("\n    at ").append(frame.getMethod().getType().getName())
+                        .append('.').append(frame.getMethod().getName())
+                        .append(':').append(frame.getLineNumber());
+            }
+        }
+        String thread = event.getThread() != null ? event.getThread().getJavaName() : "?";
+        log.warn("Virtual thread {} pinned its carrier for {} ms{}", thread, event.getDuration().toMillis(), frames);
+    }
+
+    @Override
+    public String statsName() {
+        return "virtualThreadPinning";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", stream != null);
+        stats.put("thresholdMs", threshold.toMillis());
+        stats.put("pinnedEvents", pinnedEvents.get());
+        stats.put("pinnedMillis", Duration.ofNanos(pinnedNanos.get()).toMillis());
+        return stats;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package com.aireviewer.client;
 
+import com.aireviewer.model.DiffModel;
 import com.aireviewer.model.JiraContext;
 import org.junit.jupiter.api.Test;
 import org.springframework.test.util.ReflectionTestUtils;
-
-import java.util.List;
+import org.springframework.web.client.RestTemplate;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -12,7 +12,7 @@ public class ClientsEmptyConfigTest {
 
     @Test
     void jiraClient_returnsEmptyContext_whenBaseUrlMissing() {
-        JiraClient client = new JiraClient();
+        JiraClient client = new JiraClient(new RestTemplate());
         ReflectionTestUtils.setField(client, "baseUrl", "");
         ReflectionTestUtils.setField(client, "username", "user");
         ReflectionTestUtils.setField(client, "apiToken", "token");
@@ -23,13 +23,13 @@ public class ClientsEmptyConfigTest {
     }
 
     @Test
-    void gitlabClient_returnsEmptyList_whenBaseUrlMissing() {
-        GitLabClient client = new GitLabClient();
+    void gitlabClient_returnsEmptyDiff_whenBaseUrlMissing() {
+        GitLabClient client = new GitLabClient(new RestTemplate());
         ReflectionTestUtils.setField(client, "baseUrl", "");
         ReflectionTestUtils.setField(client, "apiToken", "token");
-        List<String> files = client.fetchChangedFiles(1L, 1L);
-        assertNotNull(files);
-        assertTrue(files.isEmpty());
+        DiffModel diff = client.fetchDiffs(1L, 1L);
+        assertNotNull(diff);
+        assertTrue(diff.getFiles().isEmpty());
         // Should not throw when posting comment
         client.postMergeRequestComment(1L, 1L, "body");
     }
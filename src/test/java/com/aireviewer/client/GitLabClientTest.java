@@ -0,0 +1,174 @@
+package com.aireviewer.client;
+
+import com.aireviewer.model.CompareResult;
+import com.aireviewer.model.DiffModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class GitLabClientTest {
+
+    private static final String MR = "https://gitlab.test/api/v4/projects/1/merge_requests/2";
+
+    private GitLabClient client;
+    private MockRestServiceServer server;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        client = new GitLabClient(restTemplate);
+        ReflectionTestUtils.setField(client, "baseUrl", "https://gitlab.test");
+        ReflectionTestUtils.setField(client, "apiToken", "token");
+        ReflectionTestUtils.setField(client, "diffPageSize", 1);
+    }
+
+    @Test
+    void fetchDiffsFollowsPagesAndParsesHunks() {
+        HttpHeaders next = new HttpHeaders();
+        next.set("X-Next-Page", "2");
+        server.expect(requestTo(MR + "/diffs?page=1&per_page=1"))
+                .andExpect(header("PRIVATE-TOKEN", "token"))
+                .andRespond(withSuccess("[{\"old_path\":\"src/A.java\",\"new_path\":\"src/A.java\",\"a_mode\":\"100644\","
+                        + "\"diff\":\"@@ -1,2 +1,2 @@\\n ctx\\n-old\\n+new\\n\",\"new_file\":false,\"deleted_file\":false}]",
+                        MediaType.APPLICATION_JSON).headers(next));
+        server.expect(requestTo(MR + "/diffs?page=2&per_page=1"))
+                .andRespond(withSuccess("[{\"old_path\":\"src/B.java\",\"new_path\":\"src/B.java\","
+                        + "\"diff\":\"@@ -0,0 +1 @@\\n+b\\n\",\"new_file\":true,\"deleted_file\":false}]",
+                        MediaType.APPLICATION_JSON));
+
+        DiffModel diff = client.fetchDiffs(1L, 2L);
+
+        server.verify();
+        assertEquals(2, diff.getFiles().size());
+        DiffModel.FileDiff a = diff.getFiles().get(0);
+        assertEquals("src/A.java", a.getPath());
+        assertEquals(1, a.getHunks().size());
+        assertEquals(1, a.getAddedLines());
+        assertEquals(1, a.getRemovedLines());
+        assertNull(diff.getFiles().get(1).getOldPath());
+        assertEquals(2, diff.getAddedLines());
+    }
+
+    @Test
+    void fetchDiffsFallsBackToChangesOnOlderGitLab() {
+        server.expect(requestTo(MR + "/diffs?page=1&per_page=1")).andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(requestTo(MR + "/changes"))
+                .andRespond(withSuccess("{\"id\":5,\"title\":\"t\",\"labels\":[\"x\"],\"changes\":["
+                        + "{\"old_path\":\"src/C.java\",\"new_path\":\"src/C.java\",\"diff\":\"@@ -1 +0,0 @@\\n-c\\n\","
+                        + "\"deleted_file\":true}],\"overflow\":false}", MediaType.APPLICATION_JSON));
+
+        DiffModel diff = client.fetchDiffs(1L, 2L);
+
+        server.verify();
+        assertEquals(1, diff.getFiles().size());
+        assertEquals("src/C.java", diff.getFiles().get(0).getPath());
+        assertNull(diff.getFiles().get(0).getNewPath());
+    }
+
+    @Test
+    void unchangedDiffPageIsRevalidatedAndReused() {
+        ConditionalResponseCache responseCache = new ConditionalResponseCache(1 << 20);
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+        client = new GitLabClient(restTemplate, responseCache);
+        ReflectionTestUtils.setField(client, "baseUrl", "https://gitlab.test");
+        ReflectionTestUtils.setField(client, "diffPageSize", 1);
+        String body = "[{\"old_path\":\"src/A.java\",\"new_path\":\"src/A.java\",\"diff\":\"@@ -1 +1 @@\\n-a\\n+b\\n\"}]";
+        HttpHeaders etag = new HttpHeaders();
+        etag.setETag("W/\"v1\"");
+        server.expect(requestTo(MR + "/diffs?page=1&per_page=1"))
+                .andRespond(withSuccess(body, MediaType.APPLICATION_JSON).headers(etag));
+        server.expect(requestTo(MR + "/diffs?page=1&per_page=1"))
+                .andExpect(header("If-None-Match", "W/\"v1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED).headers(etag));
+
+        DiffModel first = client.fetchDiffs(1L, 2L);
+        DiffModel second = client.fetchDiffs(1L, 2L);
+
+        server.verify();
+        assertEquals(1, second.getFiles().size());
+        assertSame(first.getFiles().get(0), second.getFiles().get(0));
+        assertEquals(1L, responseCache.stats().get("notModified"));
+        assertEquals((long) body.length(), responseCache.stats().get("bytesSaved"));
+    }
+
+    @Test
+    void findsReviewNoteAndReportsDeletedNote() {
+        server.expect(requestTo(MR + "/notes?sort=desc&order_by=created_at&per_page=100"))
+                .andRespond(withSuccess("[{\"id\":9,\"body\":\"[AI-Reviewer | Summary] changed\",\"system\":true},"
+                        + "{\"id\":8,\"body\":\"LGTM\",\"system\":false,\"author\":{\"id\":1}},"
+                        + "{\"id\":7,\"body\":\"[AI-Reviewer | Summary]\\n\\nreview\",\"system\":false}]",
+                        MediaType.APPLICATION_JSON));
+        server.expect(requestTo(MR + "/notes/7"))
+                .andExpect(method(HttpMethod.PUT))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+
+        Long noteId = client.findMergeRequestNote(1L, 2L, "[AI-Reviewer | Summary]");
+        GitLabClient.NoteUpdate update = client.updateMergeRequestNote(1L, 2L, noteId, "new body");
+
+        server.verify();
+        assertEquals(7L, noteId);
+        assertEquals(GitLabClient.NoteUpdate.MISSING, update);
+    }
+
+    @Test
+    void postStreamsEscapedNoteBody() {
+        server.expect(requestTo(MR + "/notes"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$.body").value("Line \"1\"\n\tC:\\temp \u0001 ü"))
+                .andRespond(withSuccess("{\"id\":42,\"body\":\"ignored\"}", MediaType.APPLICATION_JSON));
+
+        Long noteId = client.postMergeRequestComment(1L, 2L, out -> out.append("Line \"1\"\n")
+                .append('\t').append("xC:\\temp \u0001 üx", 1, 12));
+
+        server.verify();
+        assertEquals(42L, noteId);
+    }
+
+    @Test
+    void fetchCompareDetectsFastForward() {
+        server.expect(requestTo("https://gitlab.test/api/v4/projects/1/repository/compare?from=aaa&to=bbb"))
+                .andRespond(withSuccess("{\"commit\":{\"id\":\"bbb\"},\"commits\":[{\"id\":\"bbb\",\"parent_ids\":[\"aaa\"]}],"
+                        + "\"diffs\":[{\"old_path\":\"src/Old.java\",\"new_path\":\"src/New.java\",\"diff\":\"\"}],"
+                        + "\"compare_timeout\":false}", MediaType.APPLICATION_JSON));
+
+        CompareResult result = client.fetchCompare(1L, "aaa", "bbb");
+
+        assertTrue(result.fastForward());
+        assertEquals(List.of("src/New.java"), result.changedFiles());
+        assertEquals(Set.of("src/Old.java", "src/New.java"), result.touchedPaths());
+    }
+
+    @Test
+    void fetchCompareTreatsMergeCommitAsNotFastForward() {
+        server.expect(requestTo("https://gitlab.test/api/v4/projects/1/repository/compare?from=aaa&to=ccc"))
+                .andRespond(withSuccess("{\"commits\":[{\"id\":\"bbb\",\"parent_ids\":[\"aaa\"]},"
+                        + "{\"id\":\"ccc\",\"parent_ids\":[\"bbb\",\"main1\"]}],"
+                        + "\"diffs\":[{\"old_path\":\"src/A.java\",\"new_path\":\"src/A.java\",\"diff\":\"\"}]}",
+                        MediaType.APPLICATION_JSON));
+
+        CompareResult result = client.fetchCompare(1L, "aaa", "ccc");
+
+        assertFalse(result.fastForward());
+    }
+}
@@ -0,0 +1,119 @@
+package com.aireviewer.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpTransportTest {
+
+    private HttpServer server;
+    private HttpTransport transport;
+    private final Set<Object> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        transport = new HttpTransport(10, 5, 1000, 1000, 1000, 60000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transport.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void reusesKeptAliveConnection() {
+        RestTemplate restTemplate = transport.newRestTemplate();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/ping";
+
+        assertEquals("ok", restTemplate.getForObject(url, String.class));
+        assertEquals("ok", restTemplate.getForObject(url, String.class));
+
+        assertEquals(1, clientPorts.size(), "Second call should reuse the pooled connection");
+        Map<String, Object> stats = transport.stats();
+        assertEquals(2L, stats.get("leases"));
+        assertEquals(0, stats.get("active"));
+        assertEquals(1, stats.get("idle"));
+        assertEquals(1, ((Map<?, ?>) stats.get("hosts")).size());
+    }
+
+    @Test
+    void streamsRequestBodyWithoutBuffering() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        HttpTransport guarded = new HttpTransport(new RateLimitScheduler(100, 10, 5000, 0.5),
+                new OutboundGuard(4, 8, 1000, 5000, 5, 60000, 0, 1), 10, 5, 1000, 5000, 1000, 60000);
+        try (ServerSocket raw = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread upstream = new Thread(() -> {
+                try (Socket socket = raw.accept()) {
+                    readUntil(socket.getInputStream(), "first");
+                    started.countDown();
+                    readUntil(socket.getInputStream(), "second");
+                    socket.getOutputStream().write(
+                            "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok"
+                                    .getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException ignored) {
+                    // The test fails on the client side
+                }
+            });
+            upstream.start();
+            RestTemplate restTemplate = guarded.newRestTemplate();
+            String url = "http://127.0.0.1:" + raw.getLocalPort() + "/notes";
+
+            String response = restTemplate.execute(url, HttpMethod.POST,
+                    request -> ((StreamingHttpOutputMessage) request).setBody(out -> {
+                        out.write("first".getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        try {
+                            // Only a body that is not buffered reaches the server before it is complete
+                            assertTrue(started.await(5, TimeUnit.SECONDS), "body should be sent while it is written");
+                        } catch (InterruptedException e) {
+                            throw new InterruptedIOException();
+                        }
+                        out.write(" second".getBytes(StandardCharsets.UTF_8));
+                    }),
+                    r -> new String(r.getBody().readAllBytes(), StandardCharsets.UTF_8));
+
+            assertEquals("ok", response);
+            upstream.join(5000);
+        } finally {
+            guarded.shutdown();
+        }
+    }
+
+    private static void readUntil(InputStream in, String marker) throws IOException {
+        StringBuilder seen = new StringBuilder();
+        int b;
+        while (seen.indexOf(marker) < 0 && (b = in.read()) >= 0) {
+            seen.append((char) b);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.aireviewer.client;
+
+import com.aireviewer.model.JiraContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class JiraClientTest {
+
+    @Test
+    void searchesAllKeysAtOnceWithProjectedFields() {
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        JiraClient client = new JiraClient(restTemplate);
+        ReflectionTestUtils.setField(client, "baseUrl", "https://jira.test");
+        ReflectionTestUtils.setField(client, "maxComments", 2);
+        server.expect(requestTo("https://jira.test/rest/api/2/search"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.jql").value("key in (\"ABC-1\",\"ABC-2\")"))
+                .andExpect(jsonPath("$.fields.length()").value(4))
+                .andRespond(withSuccess("{\"startAt\":0,\"total\":1,\"issues\":[{\"id\":\"1\",\"key\":\"ABC-1\","
+                        + "\"fields\":{\"summary\":\"Summary\",\"description\":null,"
+                        + "\"issuetype\":{\"id\":\"1\",\"name\":\"Bug\"},"
+                        + "\"comment\":{\"total\":3,\"comments\":[{\"body\":\"c1\"},{\"body\":\"c2\"},{\"body\":\"c3\"}]}}}]}",
+                        MediaType.APPLICATION_JSON));
+
+        Map<String, JiraContext> issues = client.searchIssues(List.of("ABC-1", "ABC-2"));
+
+        server.verify();
+        assertEquals(1, issues.size());
+        JiraContext issue = issues.get("ABC-1");
+        assertEquals("Summary", issue.getSummary());
+        assertNull(issue.getDescription());
+        assertEquals("Bug", issue.getIssueType());
+        assertEquals(List.of("c2", "c3"), issue.getComments());
+    }
+}
@@ -0,0 +1,117 @@
+package com.aireviewer.client;
+
+import com.aireviewer.model.JiraContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.InterruptedIOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JiraIssueCacheTest {
+
+    @Test
+    void concurrentMissesShareOneLoad() throws Exception {
+        JiraIssueCache cache = new JiraIssueCache(1 << 20, 60);
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<JiraContext> first = CompletableFuture.supplyAsync(() -> cache.get("ABC-1", key -> {
+            calls.incrementAndGet();
+            await(release);
+            return issue(key, "Summary");
+        }));
+        while (calls.get() == 0) Thread.onSpinWait();
+        CompletableFuture<JiraContext> second = CompletableFuture.supplyAsync(() -> cache.get("ABC-1", key -> {
+            calls.incrementAndGet();
+            return issue(key, "Other");
+        }));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertEquals("Summary", first.get(5, TimeUnit.SECONDS).getSummary());
+        assertEquals("Summary", second.get(5, TimeUnit.SECONDS).getSummary());
+        assertEquals(1, calls.get());
+        assertEquals("Summary", cache.get("ABC-1", key -> fail("should be cached")).getSummary());
+    }
+
+    @Test
+    void loadOfCancelledReviewIsTakenOverByWaitingReview() throws Exception {
+        JiraIssueCache cache = new JiraIssueCache(1 << 20, 60);
+        CancellationToken superseded = new CancellationToken();
+        CountDownLatch loading = new CountDownLatch(1);
+        CompletableFuture<JiraContext> cancelled = CompletableFuture.supplyAsync(() -> CancellationToken.callWith(
+                superseded, () -> cache.get("ABC-1", key -> {
+                    loading.countDown();
+                    while ((Long) cache.stats().get("sharedLoads") == 0) Thread.onSpinWait();
+                    // The other review waits for this load when this one is cancelled
+                    superseded.cancel();
+                    throw new ResourceAccessException("I/O error", new InterruptedIOException("Review cancelled"));
+                })));
+        await(loading);
+        CompletableFuture<JiraContext> waiting = CompletableFuture.supplyAsync(() -> cache.get("ABC-1",
+                key -> issue(key, "Summary")));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> cancelled.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(ResourceAccessException.class, failure.getCause());
+        assertEquals("Summary", waiting.get(5, TimeUnit.SECONDS).getSummary());
+        assertEquals("Summary", cache.get("ABC-1", key -> fail("should be cached")).getSummary());
+    }
+
+    @Test
+    void invalidationDropsEntryAndRunningLoad() {
+        JiraIssueCache cache = new JiraIssueCache(1 << 20, 60);
+        cache.get("ABC-1", key -> issue(key, "v1"));
+
+        assertTrue(cache.invalidate("ABC-1"));
+        JiraContext reloaded = cache.get("ABC-1", key -> {
+            // Jira reports another change while this load is still running
+            cache.invalidate("ABC-1");
+            return issue(key, "v2");
+        });
+
+        assertEquals("v2", reloaded.getSummary());
+        assertEquals("v3", cache.get("ABC-1", key -> issue(key, "v3")).getSummary());
+    }
+
+    @Test
+    void boundedByEstimatedBytesAndSkipsMissingIssues() {
+        long oneIssue = JiraIssueCache.estimateSize(issue("ABC-1", "Summary"));
+        JiraIssueCache cache = new JiraIssueCache(oneIssue * 2, 60, Clock.systemUTC());
+        cache.get("ABC-1", key -> issue(key, "Summary"));
+        cache.get("ABC-2", key -> issue(key, "Summary"));
+        cache.get("ABC-3", key -> issue(key, "Summary"));
+        cache.get("ABC-4", key -> new JiraContext(key, null, null, null, List.of()));
+
+        assertEquals(2, cache.stats().get("size"));
+        assertTrue((Long) cache.stats().get("bytes") <= oneIssue * 2);
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("ABC-1", key -> {
+            calls.incrementAndGet();
+            return issue(key, "Summary");
+        });
+        cache.get("ABC-4", key -> {
+            calls.incrementAndGet();
+            return issue(key, "Summary");
+        });
+        assertEquals(2, calls.get());
+    }
+
+    private static JiraContext issue(String key, String summary) {
+        return new JiraContext(key, summary, "Description", "Bug", List.of("comment"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.aireviewer.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class OutboundGuardTest {
+
+    private static final String URL = "https://gitlab.test/api/v4/projects/1";
+
+    @Test
+    void retriesIdempotentReadsOnly() {
+        OutboundGuard guard = new OutboundGuard(4, 8, 100, 5000, 10, 60000, 2, 1);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = guarded(restTemplate, guard);
+        server.expect(requestTo(URL)).andExpect(method(HttpMethod.GET)).andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+        server.expect(requestTo(URL)).andExpect(method(HttpMethod.GET)).andRespond(withSuccess());
+        server.expect(requestTo(URL)).andExpect(method(HttpMethod.POST)).andRespond(withStatus(HttpStatus.SERVICE_UNAVAILABLE));
+
+        restTemplate.getForObject(URL, String.class);
+        assertThrows(HttpServerErrorException.class, () -> restTemplate.postForObject(URL, "x", String.class));
+
+        server.verify();
+        Map<?, ?> host = host(guard);
+        assertEquals(1L, host.get("retries"));
+        assertEquals(0, host.get("inFlight"));
+        assertEquals(1, host.get("limit"), "each failed round trip halves the limit");
+    }
+
+    @Test
+    void openCircuitFailsFastWithoutCallingTheHost() {
+        OutboundGuard guard = new OutboundGuard(4, 8, 100, 5000, 2, 60000, 0, 1);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = guarded(restTemplate, guard);
+        server.expect(ExpectedCount.times(2), requestTo(URL)).andRespond(withStatus(HttpStatus.BAD_GATEWAY));
+
+        assertThrows(HttpServerErrorException.class, () -> restTemplate.getForObject(URL, String.class));
+        assertThrows(HttpServerErrorException.class, () -> restTemplate.getForObject(URL, String.class));
+        ResourceAccessException rejected = assertThrows(ResourceAccessException.class,
+                () -> restTemplate.getForObject(URL, String.class));
+
+        server.verify();
+        assertInstanceOf(UpstreamUnavailableException.class, rejected.getCause());
+        Map<?, ?> host = host(guard);
+        assertEquals("open", host.get("circuit"));
+        assertEquals(1L, host.get("rejected"));
+    }
+
+    @Test
+    void cancelledCallIsNotHeldAgainstTheHost() {
+        OutboundGuard guard = new OutboundGuard(4, 8, 100, 5000, 1, 60000, 2, 1);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = guarded(restTemplate, guard);
+        CancellationToken token = new CancellationToken();
+        server.expect(ExpectedCount.once(), requestTo(URL)).andRespond(request -> {
+            // Superseded while the call was on the wire
+            token.cancel();
+            throw new InterruptedIOException("Review cancelled");
+        });
+
+        assertThrows(ResourceAccessException.class, () -> CancellationToken.callWith(token,
+                () -> restTemplate.getForObject(URL, String.class)));
+
+        server.verify();
+        Map<?, ?> host = host(guard);
+        assertEquals(0L, host.get("failures"));
+        assertEquals(0L, host.get("retries"));
+        assertEquals(4, host.get("limit"));
+        assertEquals("closed", host.get("circuit"));
+        assertEquals(0, host.get("inFlight"));
+    }
+
+    private static MockRestServiceServer guarded(RestTemplate restTemplate, OutboundGuard guard) {
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        restTemplate.setRequestFactory(new OutboundRequestFactory(restTemplate.getRequestFactory(), List.of(guard)));
+        return server;
+    }
+
+    private static Map<?, ?> host(OutboundGuard guard) {
+        return (Map<?, ?>) ((Map<?, ?>) guard.stats().get("hosts")).get("gitlab.test:443");
+    }
+}
@@ -0,0 +1,129 @@
+package com.aireviewer.client;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class RateLimitSchedulerTest {
+
+    private static final String URL = "https://gitlab.test/api/v4/projects/1";
+
+    @Test
+    void throttledRequestIsSentAgainAfterRetryAfter() {
+        RateLimitScheduler scheduler = new RateLimitScheduler(100, 10, 5000, 0.5);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = scheduled(restTemplate, scheduler);
+        HttpHeaders retryAfter = new HttpHeaders();
+        retryAfter.set(HttpHeaders.RETRY_AFTER, "1");
+        server.expect(requestTo(URL)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(retryAfter));
+        server.expect(requestTo(URL)).andRespond(withSuccess("ok", null));
+
+        long start = System.nanoTime();
+        assertEquals("ok", restTemplate.getForObject(URL, String.class));
+
+        server.verify();
+        assertTrue(System.nanoTime() - start >= 900_000_000L, "should wait for Retry-After");
+        Map<?, ?> bucket = bucket(scheduler);
+        assertEquals(1L, bucket.get("throttled"));
+        assertEquals(2L, bucket.get("calls"));
+    }
+
+    @Test
+    void requestSentAgainGoesThroughTheGuard() {
+        RateLimitScheduler scheduler = new RateLimitScheduler(100, 10, 5000, 0.5);
+        OutboundGuard guard = new OutboundGuard(4, 8, 100, 5000, 1, 60000, 0, 1);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        restTemplate.setRequestFactory(new OutboundRequestFactory(restTemplate.getRequestFactory(),
+                List.of(scheduler, guard)));
+        HttpHeaders retryAfter = new HttpHeaders();
+        retryAfter.set(HttpHeaders.RETRY_AFTER, "0");
+        server.expect(requestTo(URL)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS).headers(retryAfter));
+        server.expect(requestTo(URL)).andRespond(withSuccess("ok", null));
+
+        assertEquals("ok", restTemplate.postForObject(URL, "body", String.class));
+
+        server.verify();
+        Map<?, ?> host = (Map<?, ?>) ((Map<?, ?>) guard.stats().get("hosts")).get("gitlab.test:443");
+        assertEquals(2L, host.get("calls"), "the guard should see the request sent again");
+        assertEquals(0, host.get("inFlight"));
+        assertEquals(2L, bucket(scheduler).get("calls"));
+    }
+
+    @Test
+    void exhaustedQuotaKeepsBulkCallsBackFirst() {
+        RateLimitScheduler scheduler = new RateLimitScheduler(100, 10, 200, 0.5);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = scheduled(restTemplate, scheduler);
+        HttpHeaders quota = new HttpHeaders();
+        quota.set("RateLimit-Remaining", "3");
+        quota.set("RateLimit-Reset", String.valueOf(System.currentTimeMillis() / 1000 + 60));
+        server.expect(requestTo(URL)).andRespond(withSuccess("ok", null).headers(quota));
+        server.expect(requestTo(URL)).andRespond(withSuccess("ok", null));
+
+        restTemplate.getForObject(URL, String.class);
+        // 3 tokens left are below the share reserved for interactive calls
+        ResourceAccessException rejected = assertThrows(ResourceAccessException.class, () -> RateLimitScheduler.callAs(
+                RateLimitScheduler.Priority.BULK, () -> restTemplate.getForObject(URL, String.class)));
+        assertInstanceOf(UpstreamUnavailableException.class, rejected.getCause());
+        assertEquals("ok", restTemplate.getForObject(URL, String.class));
+
+        server.verify();
+        assertTrue((Double) bucket(scheduler).get("requestsPerSecond") < 1);
+    }
+
+    @Test
+    void keepsCredentialsApartWithoutPublishingThem() {
+        RateLimitScheduler scheduler = new RateLimitScheduler(100, 10, 5000, 0.5);
+        RestTemplate restTemplate = new RestTemplate();
+        MockRestServiceServer server = scheduled(restTemplate, scheduler);
+        server.expect(ExpectedCount.times(3), requestTo(URL)).andRespond(withSuccess("ok", null));
+
+        for (String token : new String[] {"secret-a", "secret-b", "secret-a"}) {
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("PRIVATE-TOKEN", token);
+            restTemplate.exchange(URL, HttpMethod.GET, new HttpEntity<>(headers), String.class);
+        }
+
+        server.verify();
+        Map<?, ?> buckets = (Map<?, ?>) scheduler.stats().get("buckets");
+        assertEquals(Set.of("gitlab.test#1", "gitlab.test#2"), buckets.keySet());
+        assertEquals(2L, ((Map<?, ?>) buckets.get("gitlab.test#1")).get("calls"));
+        assertEquals(1L, ((Map<?, ?>) buckets.get("gitlab.test#2")).get("calls"));
+    }
+
+    @Test
+    void parsesRetryAfterAndResetFormats() {
+        assertEquals(2_000_000_000L, RateLimitScheduler.retryAfterNanos("2", 0));
+        assertEquals(1_000_000_000L, RateLimitScheduler.retryAfterNanos("Thu, 01 Jan 1970 00:00:01 GMT", 0));
+        assertEquals(1_609_844_400_000L, RateLimitScheduler.resetMillis("1609844400"));
+        assertEquals(1_609_844_400_000L, RateLimitScheduler.resetMillis("2021-01-05T11:00:00Z"));
+        assertEquals(-1, RateLimitScheduler.resetMillis("soon"));
+    }
+
+    private static MockRestServiceServer scheduled(RestTemplate restTemplate, RateLimitScheduler scheduler) {
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        restTemplate.setRequestFactory(new OutboundRequestFactory(restTemplate.getRequestFactory(), List.of(scheduler)));
+        return server;
+    }
+
+    private static Map<?, ?> bucket(RateLimitScheduler scheduler) {
+        Map<?, ?> buckets = (Map<?, ?>) scheduler.stats().get("buckets");
+        return (Map<?, ?>) buckets.values().iterator().next();
+    }
+}
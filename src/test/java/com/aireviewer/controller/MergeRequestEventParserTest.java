@@ -0,0 +1,45 @@
+package com.aireviewer.controller;
+
+import com.aireviewer.model.MergeRequestEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeRequestEventParserTest {
+
+    @Test
+    void readsReviewFieldsAndSkipsTheRest() throws IOException {
+        String json = "{\"object_kind\":\"merge_request\",\"event_type\":\"merge_request\","
+                + "\"user\":{\"id\":1,\"name\":\"Author\",\"username\":\"author\"},"
+                + "\"project\":{\"id\":101,\"name\":\"p\",\"ci_config_path\":null},"
+                + "\"object_attributes\":{\"iid\":7,\"target_project_id\":202,\"title\":\"ABC-1 Fix\","
+                + "\"description\":null,\"source_branch\":\"feature/ABC-2\",\"labels\":[{\"id\":1}],"
+                + "\"last_commit\":{\"id\":\"sha1\",\"author\":{\"name\":\"x\"}},\"action\":\"update\"},"
+                + "\"labels\":[{\"id\":1,\"title\":\"bug\"}],\"changes\":{\"labels\":{\"previous\":[],\"current\":[]}}}";
+
+        MergeRequestEvent event = MergeRequestEventParser.parse(stream(json));
+
+        assertEquals(new MergeRequestEvent(101L, 7L, "update", "ABC-1 Fix", null, "feature/ABC-2", "sha1", "Author"), event);
+        assertTrue(event.isReviewable());
+    }
+
+    @Test
+    void stopsReadingIrrelevantEventsEarly() throws IOException {
+        // The trailing garbage would fail the parse if it were read
+        assertNull(MergeRequestEventParser.parse(stream("{\"object_kind\":\"push\",\"commits\":[ garbage")));
+        MergeRequestEvent closed = MergeRequestEventParser.parse(stream("{\"object_kind\":\"merge_request\","
+                + "\"object_attributes\":{\"iid\":7,\"target_project_id\":202,\"action\":\"close\"},\"changes\": garbage"));
+        assertEquals(202L, closed.projectId());
+        assertFalse(closed.isReviewable());
+        assertThrows(IOException.class, () -> MergeRequestEventParser.parse(stream("[1]")));
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
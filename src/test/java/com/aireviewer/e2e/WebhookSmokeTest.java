@@ -3,8 +3,12 @@ package com.aireviewer.e2e;
 import com.aireviewer.AIReviewerApplication;
 import com.aireviewer.client.GitLabClient;
 import com.aireviewer.client.JiraClient;
+import com.aireviewer.model.DiffModel;
 import com.aireviewer.model.JiraContext;
+import com.aireviewer.model.MergeRequestKey;
 import com.aireviewer.notify.Notifier;
+import com.aireviewer.service.ReviewNotePublisher;
+import com.aireviewer.service.ReviewStateStore;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +19,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
@@ -44,13 +49,21 @@ public class WebhookSmokeTest {
     @MockBean
     private Notifier notifier;
 
+    @Autowired
+    private ReviewStateStore reviewState;
+
+    @Autowired
+    private ReviewNotePublisher notePublisher;
+
     @Test
     void webhook_end_to_end_posts_comment() throws Exception {
         // Arrange mocks
-        when(jiraClient.fetchIssue("ABC-123"))
-                .thenReturn(new JiraContext("ABC-123", "Summary", null, null, List.of()));
-        when(gitLabClient.fetchChangedFiles(101L, 7L))
-                .thenReturn(List.of("src/A.java", "src/B.java"));
+        when(jiraClient.searchIssues(List.of("ABC-123")))
+                .thenReturn(Map.of("ABC-123", new JiraContext("ABC-123", "Summary", null, null, List.of())));
+        when(gitLabClient.fetchDiffs(101L, 7L))
+                .thenReturn(DiffModel.ofFiles(List.of(
+                        DiffModel.FileDiff.of("src/A.java", "src/A.java", "@@ -1 +1 @@\n-a\n+b"),
+                        DiffModel.FileDiff.of(null, "src/B.java", "@@ -0,0 +1 @@\n+b"))));
 
         String payload = "{" +
                 "\"object_kind\":\"merge_request\"," +
@@ -63,14 +76,53 @@ public class WebhookSmokeTest {
         mockMvc.perform(post("/webhook/gitlab")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(payload))
-                .andExpect(status().isOk());
+                .andExpect(status().isAccepted());
 
-        // Assert that comment was posted with markdown
-        ArgumentCaptor<String> markdownCaptor = ArgumentCaptor.forClass(String.class);
-        verify(gitLabClient, times(1))
+        // Assert that comment was posted with markdown (review runs asynchronously)
+        ArgumentCaptor<GitLabClient.NoteBody> markdownCaptor = ArgumentCaptor.forClass(GitLabClient.NoteBody.class);
+        verify(gitLabClient, timeout(10000).times(1))
                 .postMergeRequestComment(eq(101L), eq(7L), markdownCaptor.capture());
-        String md = markdownCaptor.getValue();
+        StringBuilder rendered = new StringBuilder();
+        markdownCaptor.getValue().writeTo(rendered);
+        String md = rendered.toString();
         assertThat(md).isNotNull();
         assertThat(md).startsWith("[AI-Reviewer | Summary]");
     }
+
+    @Test
+    void merge_webhook_forgets_review_state() throws Exception {
+        when(gitLabClient.fetchDiffs(101L, 8L))
+                .thenReturn(DiffModel.ofFiles(List.of(DiffModel.FileDiff.of("src/A.java", "src/A.java", "@@ -1 +1 @@\n-a\n+b"))));
+        when(gitLabClient.postMergeRequestComment(eq(101L), eq(8L), any(GitLabClient.NoteBody.class))).thenReturn(55L);
+        MergeRequestKey key = new MergeRequestKey(101L, 8L);
+
+        mockMvc.perform(post("/webhook/gitlab")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mergeRequestPayload("open")))
+                .andExpect(status().isAccepted());
+        verify(gitLabClient, timeout(10000)).postMergeRequestComment(eq(101L), eq(8L), any(GitLabClient.NoteBody.class));
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((Integer) notePublisher.stats().get("size") == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(reviewState.get(key)).isNotNull();
+        assertThat(notePublisher.stats().get("size")).isEqualTo(1);
+
+        mockMvc.perform(post("/webhook/gitlab")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(mergeRequestPayload("merge")))
+                .andExpect(status().isAccepted());
+
+        assertThat(reviewState.get(key)).isNull();
+        assertThat(notePublisher.stats().get("size")).isEqualTo(0);
+    }
+
+    private static String mergeRequestPayload(String action) {
+        return "{" +
+                "\"object_kind\":\"merge_request\"," +
+                "\"project\":{\"id\":101}," +
+                "\"object_attributes\":{\"action\":\"" + action + "\",\"iid\":8,\"title\":\"Fix\"," +
+                "\"last_commit\":{\"id\":\"c0ffee\"}}" +
+                "}";
+    }
 }
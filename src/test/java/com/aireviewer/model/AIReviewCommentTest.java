@@ -2,7 +2,9 @@ package com.aireviewer.model;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,4 +27,64 @@ class AIReviewCommentTest {
         assertTrue(md.contains("**Поради по unit-тестам:**"));
         assertTrue(md.contains("**Джерело:**"));
     }
+
+    @Test
+    void writeMarkdown_collapsesLowPrioritySectionsToFitLimit() throws IOException {
+        AIReviewComment c = new AIReviewComment();
+        c.setJiraContext(new JiraContext("PRJ-1", "Summary", "d".repeat(500), "Bug", List.of("c1", "c2")));
+        for (int i = 0; i < 50; i++) {
+            c.addIssue(new AIReviewIssue("Problem " + i, "Fix " + i, "Code Agent"));
+            c.addTestAdvice("Advice " + i);
+        }
+        String full = c.toMarkdown();
+        StringBuilder unlimited = new StringBuilder();
+        c.writeMarkdown(unlimited, full.length());
+        assertEquals(full, unlimited.toString());
+
+        StringBuilder limited = new StringBuilder();
+        c.writeMarkdown(limited, 2000);
+        String md = limited.toString();
+
+        assertTrue(md.length() <= 2000);
+        assertTrue(md.startsWith("[AI-Reviewer | Summary]"));
+        assertTrue(md.contains("PRJ-1"));
+        assertFalse(md.contains("ddd"));
+        assertTrue(md.contains("1. Problem 0"));
+        assertFalse(md.contains("Problem 49"));
+        assertFalse(md.contains("Advice 0"));
+        assertTrue(md.contains("50"));
+
+        // The measuring pass passes on the full review; the layout writes the collapsed one
+        StringBuilder measured = new StringBuilder();
+        AIReviewComment.Layout layout = c.layout(2000, measured);
+        assertEquals(full, measured.toString());
+        StringBuilder written = new StringBuilder();
+        layout.writeTo(written);
+        assertEquals(md, written.toString());
+    }
+
+    @Test
+    void withDelta_replacesFindingsOfTouchedFilesOnly() {
+        AIReviewComment previous = new AIReviewComment();
+        previous.addIssue(new AIReviewIssue("old A", "r", "s", "src/A.java"));
+        previous.addIssue(new AIReviewIssue("old B", "r", "s", "src/B.java"));
+        previous.addIssue(new AIReviewIssue("whole MR", "r", "s"));
+        previous.addTestAdvice("test A", "src/A.java");
+        previous.addTestAdvice("test B", "src/B.java");
+        previous.addTestAdvice("test MR", null);
+        AIReviewComment delta = new AIReviewComment();
+        delta.setDoneWell("Still good");
+        delta.addIssue(new AIReviewIssue("new A", "r", "s", "src/A.java"));
+        delta.addIssue(new AIReviewIssue("delta only", "r", "s"));
+        delta.addTestAdvice("test MR again", null);
+
+        AIReviewComment merged = previous.withDelta(delta, Set.of("src/A.java"));
+
+        // Findings about the whole merge request were judged on its full diff, which the delta does not see
+        assertEquals(List.of("old B", "whole MR", "new A"),
+                merged.getIssues().stream().map(AIReviewIssue::getDescription).toList());
+        assertEquals(List.of("test B", "test MR"), merged.getTestAdvice());
+        assertEquals("Still good", merged.getDoneWell());
+        assertEquals(3, previous.getIssues().size());
+    }
 }
@@ -0,0 +1,62 @@
+package com.aireviewer.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffModelTest {
+
+    @Test
+    void lineCountMatchesStringSplit() {
+        for (String diff : new String[]{"", "a", "a\n", "a\n\nb", "a\nb\n\n\n", "\n\n", "\na"}) {
+            assertEquals(diff.split("\n").length, DiffModel.parse(diff).getLineCount(), "diff=" + diff.replace("\n", "\\n"));
+        }
+    }
+
+    @Test
+    void parsesFilesHunksAndCounts() {
+        String diff = String.join("\n",
+                "diff --git a/src/A.java b/src/A.java",
+                "index 111..222 100644",
+                "--- a/src/A.java",
+                "+++ b/src/A.java",
+                "@@ -1,3 +1,3 @@",
+                " context",
+                "--- removed line that looks like a header",
+                "+++ added line that looks like a header",
+                " context",
+                "diff --git a/src/New.java b/src/New.java",
+                "new file mode 100644",
+                "--- /dev/null",
+                "+++ b/src/New.java",
+                "@@ -0,0 +1,2 @@",
+                "+class New {",
+                "+}",
+                "");
+
+        DiffModel model = DiffModel.parse(diff);
+
+        assertEquals(2, model.getFiles().size());
+        DiffModel.FileDiff a = model.getFiles().get(0);
+        assertEquals("src/A.java", a.getPath());
+        assertEquals(1, a.getHunks().size());
+        assertEquals(1, a.getAddedLines());
+        assertEquals(1, a.getRemovedLines());
+        DiffModel.FileDiff created = model.getFiles().get(1);
+        assertNull(created.getOldPath());
+        assertEquals("src/New.java", created.getNewPath());
+        assertEquals(2, created.getHunks().get(0).getNewLines());
+        assertEquals(3, model.getAddedLines());
+        assertEquals(1, model.getRemovedLines());
+        assertEquals("+class New {", model.line(14).toString());
+    }
+
+    @Test
+    void contextSharesOneModel() {
+        MergeRequestContext ctx = new MergeRequestContext(1L, 1L, "a", "t", "d", List.of(), "x\ny");
+        assertSame(ctx.getDiffModel(), ctx.getDiffModel());
+        assertNull(new MergeRequestContext(1L, 1L, "a", "t", "d", List.of(), null).getDiffModel());
+    }
+}
@@ -0,0 +1,61 @@
+package com.aireviewer.rules;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PathRuleEngineTest {
+
+    @Test
+    void matchesLikeLowercaseContains() {
+        PathRuleEngine engine = RuleSet.defaults().getPathEngine();
+        List<String> paths = List.of(
+                "src/main/java/LegacyAdapter.java",
+                "src/UtilHelper.java",
+                "web/UserServiceController.java",
+                "docs/README.md",
+                "src/DEPRECATED/Thing.java");
+        Map<String, List<String>> rules = Map.of(
+                PathRules.ARCH_DEPRECATED, List.of("legacy", "deprecated"),
+                PathRules.CODE_UTIL, List.of("util", "helper"),
+                PathRules.TEST_SERVICE, List.of("service"),
+                PathRules.TEST_CONTROLLER, List.of("controller"));
+
+        PathMatches matches = engine.classify(paths);
+
+        for (int i = 0; i < paths.size(); i++) {
+            String lower = paths.get(i).toLowerCase();
+            for (Map.Entry<String, List<String>> rule : rules.entrySet()) {
+                boolean expected = rule.getValue().stream().anyMatch(lower::contains);
+                assertEquals(expected, matches.matches(i, rule.getKey()), paths.get(i) + " / " + rule.getKey());
+            }
+        }
+        assertEquals(List.of("src/UtilHelper.java"), matches.filesMatching(PathRules.CODE_UTIL));
+    }
+
+    @Test
+    void findsOverlappingAndNonAsciiKeywords() {
+        Map<String, List<String>> rules = new LinkedHashMap<>();
+        rules.put("he", List.of("he"));
+        rules.put("she", List.of("she"));
+        rules.put("hers", List.of("hers"));
+        rules.put("umlaut", List.of("prüf"));
+        PathRuleEngine engine = new PathRuleEngine(rules);
+
+        long mask = engine.match("uSHErs/PRÜFung");
+
+        assertEquals(engine.bit("he") | engine.bit("she") | engine.bit("hers") | engine.bit("umlaut"), mask);
+        assertEquals(0L, engine.match("path/without/hits"));
+    }
+
+    @Test
+    void rejectsRuleWithoutKeywords() {
+        Map<String, List<String>> rules = new LinkedHashMap<>();
+        rules.put("empty", List.of(""));
+        assertThrows(IllegalArgumentException.class, () -> new PathRuleEngine(rules));
+    }
+}
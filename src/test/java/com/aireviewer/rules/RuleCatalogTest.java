@@ -0,0 +1,73 @@
+package com.aireviewer.rules;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleCatalogTest {
+
+    @TempDir
+    Path dir;
+
+    private RuleCatalog catalog;
+
+    @AfterEach
+    void tearDown() {
+        if (catalog != null) catalog.stop();
+    }
+
+    @Test
+    void bundledCatalogCompiles() {
+        RuleSet rules = RuleSet.defaults();
+        assertEquals(300, rules.getLargeDiffLines());
+        assertEquals(5, rules.getSmallDiffLines());
+        assertEquals(50, rules.getLongDiffLines());
+        assertTrue(rules.getPathEngine().match("src/LegacyClient.java") != 0);
+    }
+
+    @Test
+    void invalidCatalogIsRejected() {
+        String broken = bundled().replace("threshold.code.small-diff-lines=5", "threshold.code.small-diff-lines=500");
+        assertThrows(IllegalArgumentException.class,
+                () -> RuleSet.parse(broken.getBytes(StandardCharsets.UTF_8), "test"));
+        assertThrows(IllegalArgumentException.class,
+                () -> RuleSet.parse((bundled() + "\nthreshold.typo=1\n").getBytes(StandardCharsets.UTF_8), "test"));
+    }
+
+    @Test
+    void reloadSwapsRulesAndKeepsPreviousOnError() throws IOException {
+        Path file = dir.resolve("rules.properties");
+        Files.writeString(file, bundled());
+        catalog = new RuleCatalog(file.toString(), 10);
+        catalog.start();
+        RuleSet before = catalog.current();
+
+        Files.writeString(file, bundled().replace("threshold.code.large-diff-lines=300", "threshold.code.large-diff-lines=1000"));
+        assertTrue(catalog.reload());
+        RuleSet after = catalog.current();
+        assertEquals(1000, after.getLargeDiffLines());
+        assertNotEquals(before.getVersion(), after.getVersion());
+        // the old snapshot is untouched
+        assertEquals(300, before.getLargeDiffLines());
+
+        Files.writeString(file, "path.code.util=\n");
+        assertFalse(catalog.reload());
+        assertSame(after, catalog.current());
+    }
+
+    private static String bundled() {
+        try (InputStream is = RuleSet.class.getResourceAsStream(RuleSet.BUNDLED_CATALOG)) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -2,12 +2,14 @@ package com.aireviewer.service;
 
 import com.aireviewer.agent.Agent;
 import com.aireviewer.model.AIReviewComment;
+import com.aireviewer.model.AIReviewIssue;
 import com.aireviewer.model.JiraContext;
 import com.aireviewer.model.MergeRequestContext;
 import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -32,4 +34,112 @@ public class AggregatorServiceTest {
         AIReviewComment comment = aggregator.review(new MergeRequestContext(1L, 1L, "author", "title", "desc", List.of(), ""), null);
         assertNotNull(comment, "Aggregator should return a comment even with no agents");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelMergesPartialsInRegistrationOrder() {
+        Agent slow = (mr, jira, comment) -> {
+            sleep(200);
+            comment.addIssue(new AIReviewIssue("slow", "r", "s"));
+        };
+        Agent fast = (mr, jira, comment) -> comment.addIssue(new AIReviewIssue("fast", "r", "s"));
+        AggregatorService aggregator = new AggregatorService(List.of(slow, fast), true, 5000, false);
+        try {
+            AIReviewComment comment = aggregator.review(new MergeRequestContext(1L, 1L, "author", "title", "desc", List.of(), ""), null);
+            assertEquals(List.of("slow", "fast"), comment.getIssues().stream().map(AIReviewIssue::getDescription).toList());
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelIsolatesSlowAndFailingAgents() {
+        Agent hanging = (mr, jira, comment) -> {
+            sleep(5000);
+            comment.addIssue(new AIReviewIssue("hanging", "r", "s"));
+        };
+        Agent broken = (mr, jira, comment) -> {
+            throw new IllegalStateException("boom");
+        };
+        Agent healthy = (mr, jira, comment) -> comment.addTestAdvice("advice");
+        AggregatorService aggregator = new AggregatorService(List.of(hanging, broken, healthy), true, 200, true);
+        try {
+            AIReviewComment comment = aggregator.review(new MergeRequestContext(1L, 1L, "author", "title", "desc", List.of(), ""), null);
+            assertTrue(comment.getIssues().isEmpty());
+            assertEquals(List.of("advice"), comment.getTestAdvice());
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testDependentAgentSeesProducerOutput() {
+        AggregatorService aggregator = new AggregatorService(List.of(new Consumer(), new Producer()), true, 5000, false);
+        try {
+            AIReviewComment comment = aggregator.review(new MergeRequestContext(1L, 1L, "author", "title", "desc", List.of(), ""), null);
+            assertEquals(List.of("saw KEY-1"), comment.getTestAdvice());
+            assertEquals("KEY-1", comment.getJiraContext().getKey());
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
+    @Test
+    public void testSequentialRunsProducerBeforeConsumer() {
+        AggregatorService aggregator = new AggregatorService(List.of(new Consumer(), new Producer()));
+        AIReviewComment comment = aggregator.review(new MergeRequestContext(1L, 1L, "author", "title", "desc", List.of(), ""), null);
+        assertEquals(List.of("saw KEY-1"), comment.getTestAdvice());
+    }
+
+    @Test
+    public void testCycleIsRejectedAtConstruction() {
+        Agent a = new DeclaringAgent(Set.of("a"), Set.of("b"));
+        Agent b = new DeclaringAgent(Set.of("b"), Set.of("a"));
+        assertThrows(IllegalStateException.class, () -> new AggregatorService(List.of(a, b)));
+    }
+
+    @Test
+    public void testMissingProducerIsRejectedAtConstruction() {
+        Agent orphan = new DeclaringAgent(Set.of(), Set.of("nobody"));
+        assertThrows(IllegalStateException.class, () -> new AggregatorService(List.of(orphan)));
+    }
+
+    private static class Producer implements Agent {
+        @Override
+        public void analyse(MergeRequestContext mr, JiraContext jira, AIReviewComment comment) {
+            sleep(100);
+            comment.setJiraContext(new JiraContext("KEY-1", null, null, null, List.of()));
+        }
+
+        @Override
+        public Set<String> produces() {
+            return Set.of("jira");
+        }
+    }
+
+    private static class Consumer implements Agent {
+        @Override
+        public void analyse(MergeRequestContext mr, JiraContext jira, AIReviewComment comment) {
+            JiraContext upstream = comment.getJiraContext();
+            comment.addTestAdvice("saw " + (upstream != null ? upstream.getKey() : null));
+        }
+
+        @Override
+        public Set<String> consumes() {
+            return Set.of("jira");
+        }
+    }
+
+    private record DeclaringAgent(Set<String> produces, Set<String> consumes) implements Agent {
+        @Override
+        public void analyse(MergeRequestContext mr, JiraContext jira, AIReviewComment comment) {
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.aireviewer.service;
+
+import com.aireviewer.model.MergeRequestEvent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventDeduplicatorTest {
+
+    @Test
+    void retriedDeliveryAndSameHeadCommitAreDuplicates() {
+        EventDeduplicator deduplicator = new EventDeduplicator(60000, 1000);
+        MergeRequestEvent event = event(7, "abc");
+
+        assertFalse(deduplicator.isDuplicate("uuid-1"));
+        assertTrue(deduplicator.claim("uuid-1", event));
+
+        assertTrue(deduplicator.isDuplicate("UUID-1"));
+        assertFalse(deduplicator.claim("uuid-1", event(8, "xyz")));
+        assertFalse(deduplicator.claim("uuid-2", new MergeRequestEvent(101L, 7L, "update", "New title", null, "f", "abc", "b")));
+        assertFalse(deduplicator.isDuplicate("uuid-2"));
+        assertTrue(deduplicator.claim("uuid-3", event(7, "def")));
+        assertTrue(deduplicator.claim("uuid-4", event(8, "abc")));
+        assertTrue(deduplicator.claim(null, new MergeRequestEvent(101L, 9L, "open", null, null, null, null, null)));
+        assertEquals(2L, deduplicator.stats().get("duplicateDeliveries"));
+        assertEquals(1L, deduplicator.stats().get("duplicateEvents"));
+    }
+
+    @Test
+    void forgottenEventIsClaimedAgain() {
+        EventDeduplicator deduplicator = new EventDeduplicator(60000, 1000);
+        // Enough keys to share probe runs, so removal has to keep the others reachable
+        for (int i = 0; i < 200; i++) {
+            assertTrue(deduplicator.claim("uuid-" + i, event(i, "sha" + i)));
+        }
+
+        deduplicator.forget("uuid-7", event(7, "sha7"));
+
+        assertTrue(deduplicator.claim("uuid-7", event(7, "sha7")));
+        for (int i = 0; i < 200; i++) {
+            assertFalse(deduplicator.claim("uuid-" + i, null));
+            assertFalse(deduplicator.claim(null, event(i, "sha" + i)));
+        }
+    }
+
+    @Test
+    void entriesExpireAndMemoryStaysBounded() throws InterruptedException {
+        EventDeduplicator expiring = new EventDeduplicator(100, 1000);
+        expiring.claim("uuid-1", null);
+        assertTrue(expiring.isDuplicate("uuid-1"));
+        Thread.sleep(250);
+        assertFalse(expiring.isDuplicate("uuid-1"));
+
+        EventDeduplicator small = new EventDeduplicator(60000, 64);
+        for (int i = 0; i < 1000; i++) {
+            small.claim("uuid-" + i, null);
+        }
+        assertTrue(small.isDuplicate("uuid-999"));
+        assertFalse(small.isDuplicate("uuid-0"));
+        assertTrue((int) small.stats().get("size") <= 5 * 16);
+    }
+
+    private static MergeRequestEvent event(long iid, String headSha) {
+        return new MergeRequestEvent(101L, iid, "open", "Title", "", "feature", headSha, "alice");
+    }
+}
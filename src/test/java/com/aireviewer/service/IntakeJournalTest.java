@@ -0,0 +1,115 @@
+package com.aireviewer.service;
+
+import com.aireviewer.model.MergeRequestEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntakeJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void openEventsAreReplayedAfterRestart() throws IOException {
+        IntakeJournal journal = new IntakeJournal(dir.toString(), 4096, true);
+        journal.open();
+        long done = journal.append(event(1, "done"));
+        journal.append(event(2, "open"));
+        journal.append(new MergeRequestEvent(7L, 3L, "update", null, "ü".repeat(10), null, "abc", null));
+        journal.complete(done);
+        // Simulate a crash: no close()
+
+        IntakeJournal restarted = new IntakeJournal(dir.toString(), 4096, true);
+        restarted.open();
+        List<IntakeJournal.Entry> recovered = restarted.takeRecovered();
+
+        assertEquals(2, recovered.size());
+        assertEquals(event(2, "open"), recovered.get(0).event());
+        assertEquals("ü".repeat(10), recovered.get(1).event().description());
+        assertNull(recovered.get(1).event().title());
+        assertTrue(restarted.takeRecovered().isEmpty());
+        assertEquals(1, segmentCount());
+        restarted.close();
+    }
+
+    @Test
+    void restartsAfterRunWithoutEvents() throws IOException {
+        for (int run = 0; run < 3; run++) {
+            IntakeJournal journal = new IntakeJournal(dir.toString(), 4096, false);
+            journal.open();
+            assertTrue(journal.takeRecovered().isEmpty());
+            journal.close();
+        }
+        IntakeJournal journal = new IntakeJournal(dir.toString(), 4096, false);
+        journal.open();
+        journal.append(event(1, "open"));
+        journal.close();
+
+        IntakeJournal restarted = new IntakeJournal(dir.toString(), 4096, false);
+        restarted.open();
+        assertEquals(1, restarted.takeRecovered().size());
+        assertEquals(1, segmentCount());
+        restarted.close();
+    }
+
+    @Test
+    void fullyCompletedSegmentsAreDeleted() throws IOException {
+        IntakeJournal journal = new IntakeJournal(dir.toString(), 4096, false);
+        journal.open();
+        String description = "x".repeat(1500);
+        long first = journal.append(new MergeRequestEvent(7L, 1L, "open", "t", description, "b", "sha", "a"));
+        long second = journal.append(new MergeRequestEvent(7L, 2L, "open", "t", description, "b", "sha", "a"));
+        journal.append(new MergeRequestEvent(7L, 3L, "open", "t", description, "b", "sha", "a"));
+        assertEquals(2, segmentCount());
+
+        journal.complete(first);
+        journal.complete(second);
+
+        assertEquals(1, segmentCount());
+        assertEquals(1, journal.stats().get("openEntries"));
+        journal.close();
+    }
+
+    @Test
+    void newerSegmentOutlivesOlderOpenOnes() throws IOException {
+        IntakeJournal journal = new IntakeJournal(dir.toString(), 4096, false);
+        journal.open();
+        String description = "x".repeat(1500);
+        long first = journal.append(new MergeRequestEvent(7L, 1L, "open", "t", description, "b", "sha", "a"));
+        journal.append(new MergeRequestEvent(7L, 2L, "open", "t", description, "b", "sha", "a"));
+        long third = journal.append(new MergeRequestEvent(7L, 3L, "open", "t", description, "b", "sha", "a"));
+        // Recorded in the second segment
+        journal.complete(first);
+        long fourth = journal.append(new MergeRequestEvent(7L, 4L, "open", "t", description, "b", "sha", "a"));
+        journal.append(new MergeRequestEvent(7L, 5L, "open", "t", description, "b", "sha", "a"));
+        assertEquals(3, segmentCount());
+
+        journal.complete(third);
+        journal.complete(fourth);
+        assertEquals(3, segmentCount());
+
+        IntakeJournal restarted = new IntakeJournal(dir.toString(), 4096, false);
+        restarted.open();
+        List<IntakeJournal.Entry> recovered = restarted.takeRecovered();
+        assertEquals(List.of(2L, 5L), recovered.stream().map(e -> e.event().mergeRequestIid()).toList());
+        restarted.close();
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    private static MergeRequestEvent event(long iid, String title) {
+        return new MergeRequestEvent(7L, iid, "open", title, "", "feature", "sha" + iid, "alice");
+    }
+}
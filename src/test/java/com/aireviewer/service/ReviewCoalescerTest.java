@@ -0,0 +1,136 @@
+package com.aireviewer.service;
+
+import com.aireviewer.client.RateLimitScheduler;
+import com.aireviewer.model.MergeRequestEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReviewCoalescerTest {
+
+    private ReviewExecutor executor;
+    private ReviewProcessor processor;
+
+    @BeforeEach
+    void setUp() {
+        executor = new ReviewExecutor(2, 10, false, 1);
+        processor = mock(ReviewProcessor.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void burstForSameMergeRequestRunsLatestOnly() {
+        ReviewCoalescer coalescer = new ReviewCoalescer(executor, processor, 200, 5000);
+        MergeRequestEvent first = payload(101, 7, "v1");
+        MergeRequestEvent second = payload(101, 7, "v2");
+        MergeRequestEvent third = payload(101, 7, "v3");
+        MergeRequestEvent other = payload(101, 8, "other");
+
+        coalescer.submit(first);
+        coalescer.submit(second);
+        coalescer.submit(other);
+        coalescer.submit(third);
+
+        verify(processor, timeout(5000)).handleMergeRequestEvent(third);
+        verify(processor, timeout(5000)).handleMergeRequestEvent(other);
+        verify(processor, never()).handleMergeRequestEvent(first);
+        verify(processor, never()).handleMergeRequestEvent(second);
+        assertEquals(2L, coalescer.stats().get("coalesced"));
+        assertEquals(0, coalescer.stats().get("pending"));
+    }
+
+    @Test
+    void zeroWindowDispatchesImmediately() {
+        ReviewCoalescer coalescer = new ReviewCoalescer(executor, processor, 0, 0);
+        MergeRequestEvent first = payload(101, 7, "v1");
+        MergeRequestEvent second = payload(101, 7, "v2");
+
+        coalescer.submit(first);
+        coalescer.submit(second);
+
+        verify(processor, timeout(5000)).handleMergeRequestEvent(first);
+        verify(processor, timeout(5000)).handleMergeRequestEvent(second);
+        assertEquals(0L, coalescer.stats().get("coalesced"));
+    }
+
+    @Test
+    void eventRejectedAfterAcceptIsRetried() {
+        ReviewExecutor busy = mock(ReviewExecutor.class);
+        doThrow(new ReviewRejectedException("Review executor is saturated", 1))
+                .doAnswer(invocation -> {
+                    invocation.getArgument(1, Runnable.class).run();
+                    return null;
+                })
+                .when(busy).submit(any(), any(Runnable.class));
+        ReviewCoalescer coalescer = new ReviewCoalescer(busy, processor, 50, 1000);
+        MergeRequestEvent event = payload(101, 7, "v1");
+
+        coalescer.submit(event);
+
+        verify(processor, timeout(5000)).handleMergeRequestEvent(event);
+        assertEquals(1L, coalescer.stats().get("retriedOnReject"));
+        assertEquals(0, coalescer.stats().get("pending"));
+    }
+
+    @Test
+    void failedReviewRunsDropCallback() throws InterruptedException {
+        ReviewCoalescer coalescer = new ReviewCoalescer(executor, processor, 0, 0);
+        MergeRequestEvent failing = payload(101, 7, "v1");
+        MergeRequestEvent passing = payload(101, 8, "v1");
+        when(processor.handleMergeRequestEvent(passing)).thenReturn(true);
+        CountDownLatch dropped = new CountDownLatch(1);
+        AtomicInteger passingDropped = new AtomicInteger();
+
+        coalescer.submit(failing, dropped::countDown);
+        coalescer.submit(passing, passingDropped::incrementAndGet);
+
+        assertTrue(dropped.await(5, TimeUnit.SECONDS));
+        verify(processor, timeout(5000)).handleMergeRequestEvent(passing);
+        assertEquals(0, passingDropped.get());
+    }
+
+    @Test
+    void journaledEventsAreReplayedAtBulkPriority(@TempDir Path dir) throws IOException {
+        IntakeJournal previousRun = new IntakeJournal(dir.toString(), 4096, false);
+        previousRun.open();
+        MergeRequestEvent event = payload(101, 7, "v1");
+        previousRun.append(event);
+        previousRun.close();
+        IntakeJournal journal = new IntakeJournal(dir.toString(), 4096, false);
+        journal.open();
+        Map<Long, RateLimitScheduler.Priority> priorities = new ConcurrentHashMap<>();
+        when(processor.handleMergeRequestEvent(any())).thenAnswer(invocation -> {
+            priorities.put(invocation.getArgument(0, MergeRequestEvent.class).mergeRequestIid(),
+                    RateLimitScheduler.currentPriority());
+            return true;
+        });
+        ReviewCoalescer coalescer = new ReviewCoalescer(executor, processor, journal, new ReviewCancellations(), 0, 0);
+
+        coalescer.replayJournal();
+        coalescer.submit(payload(101, 8, "v1"));
+
+        verify(processor, timeout(5000).times(2)).handleMergeRequestEvent(any());
+        assertEquals(Map.of(7L, RateLimitScheduler.Priority.BULK, 8L, RateLimitScheduler.Priority.INTERACTIVE), priorities);
+        journal.close();
+    }
+
+    private static MergeRequestEvent payload(long projectId, long iid, String title) {
+        return new MergeRequestEvent(projectId, iid, "update", title, null, null, null, null);
+    }
+}
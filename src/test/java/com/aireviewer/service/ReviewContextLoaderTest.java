@@ -0,0 +1,139 @@
+package com.aireviewer.service;
+
+import com.aireviewer.client.GitLabClient;
+import com.aireviewer.client.JiraClient;
+import com.aireviewer.client.JiraIssueCache;
+import com.aireviewer.model.CompareResult;
+import com.aireviewer.model.DiffModel;
+import com.aireviewer.model.JiraContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReviewContextLoaderTest {
+
+    private JiraClient jiraClient;
+    private GitLabClient gitLabClient;
+    private ReviewContextLoader loader;
+
+    @BeforeEach
+    void setUp() {
+        jiraClient = mock(JiraClient.class);
+        gitLabClient = mock(GitLabClient.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (loader != null) loader.shutdown();
+    }
+
+    @Test
+    void fetchesSourcesConcurrently() {
+        loader = new ReviewContextLoader(jiraClient, new JiraIssueCache(0, 0), gitLabClient, false, 5000, 5000);
+        // Each fetch only completes while the other one is running too
+        CountDownLatch running = new CountDownLatch(2);
+        when(jiraClient.searchIssues(List.of("ABC-1"))).thenAnswer(inv -> {
+            running.countDown();
+            assertTrue(running.await(5, TimeUnit.SECONDS), "GitLab should be fetched at the same time");
+            return Map.of("ABC-1", new JiraContext("ABC-1", "Summary", null, null, List.of()));
+        });
+        when(gitLabClient.fetchDiffs(1L, 2L)).thenAnswer(inv -> {
+            running.countDown();
+            assertTrue(running.await(5, TimeUnit.SECONDS), "Jira should be fetched at the same time");
+            return diffOf("src/A.java");
+        });
+
+        ReviewContextLoader.LoadedContext ctx = loader.load(1L, 2L, List.of("ABC-1"));
+
+        assertEquals("Summary", ctx.jiraContext().getSummary());
+        assertEquals(List.of("src/A.java"), ctx.changedFiles());
+        assertFalse(ctx.isPartial());
+    }
+
+    @Test
+    void slowSourceFallsBackToPartialContext() {
+        loader = new ReviewContextLoader(jiraClient, new JiraIssueCache(0, 0), gitLabClient, true, 100, 5000);
+        when(jiraClient.searchIssues(List.of("ABC-1"))).thenAnswer(inv -> {
+            Thread.sleep(2000);
+            return Map.of("ABC-1", new JiraContext("ABC-1", "Summary", null, null, List.of()));
+        });
+        when(gitLabClient.fetchDiffs(1L, 2L)).thenReturn(diffOf("src/A.java"));
+
+        ReviewContextLoader.LoadedContext ctx = loader.load(1L, 2L, List.of("ABC-1"));
+
+        assertTrue(ctx.isPartial());
+        assertEquals(List.of(ReviewContextLoader.SOURCE_JIRA), ctx.missingSources());
+        assertEquals("ABC-1", ctx.jiraContext().getKey());
+        assertNull(ctx.jiraContext().getSummary());
+        assertEquals(List.of("src/A.java"), ctx.changedFiles());
+    }
+
+    @Test
+    void lateFetchIsInterrupted() throws InterruptedException {
+        loader = new ReviewContextLoader(jiraClient, new JiraIssueCache(0, 0), gitLabClient, false, 100, 5000, 1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(jiraClient.searchIssues(List.of("ABC-1"))).thenAnswer(inv -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return Map.of();
+        });
+        when(jiraClient.searchIssues(List.of("ABC-2")))
+                .thenReturn(Map.of("ABC-2", new JiraContext("ABC-2", "Summary", null, null, List.of())));
+
+        assertTrue(loader.load(null, null, List.of("ABC-1")).isPartial());
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "the late fetch should be interrupted");
+        // The only fetch thread is free again
+        assertEquals("Summary", loader.load(null, null, List.of("ABC-2")).jiraContext().getSummary());
+    }
+
+    @Test
+    void rewrittenBranchFallsBackToAllChanges() {
+        loader = new ReviewContextLoader(jiraClient, new JiraIssueCache(0, 0), gitLabClient, false, 5000, 5000);
+        when(gitLabClient.fetchCompare(1L, "old", "new"))
+                .thenReturn(new CompareResult(false, List.of("src/B.java"), Set.of("src/B.java"), diffOf("src/B.java")));
+        when(gitLabClient.fetchDiffs(1L, 2L)).thenReturn(diffOf("src/A.java", "src/B.java"));
+
+        ReviewContextLoader.LoadedContext ctx = loader.loadDelta(1L, 2L, List.of(), "old", "new");
+
+        assertFalse(ctx.isIncremental());
+        assertEquals(List.of("src/A.java", "src/B.java"), ctx.changedFiles());
+    }
+
+    @Test
+    void resolvesAllKeysInOneSearchAndAttachesRelatedIssues() {
+        loader = new ReviewContextLoader(jiraClient, new JiraIssueCache(1 << 20, 60), gitLabClient, false, 5000, 5000);
+        when(jiraClient.searchIssues(List.of("ABC-1", "ABC-2", "XYZ-9"))).thenReturn(Map.of(
+                "ABC-1", new JiraContext("ABC-1", "Primary", null, null, List.of()),
+                "XYZ-9", new JiraContext("XYZ-9", "Linked", null, null, List.of())));
+
+        JiraContext jira = loader.load(null, null, List.of("ABC-1", "ABC-2", "XYZ-9")).jiraContext();
+        // The second lookup is served from the cache
+        loader.load(null, null, List.of("ABC-1", "XYZ-9"));
+
+        assertEquals("Primary", jira.getSummary());
+        assertEquals(List.of("XYZ-9"), jira.getRelatedIssues().stream().map(JiraContext::getKey).toList());
+        verify(jiraClient, times(1)).searchIssues(any());
+    }
+
+    private static DiffModel diffOf(String... paths) {
+        List<DiffModel.FileDiff> files = new ArrayList<>();
+        for (String path : paths) {
+            files.add(DiffModel.FileDiff.of(path, path, "@@ -1 +1 @@\n-old\n+new"));
+        }
+        return DiffModel.ofFiles(files);
+    }
+}
@@ -0,0 +1,120 @@
+package com.aireviewer.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReviewExecutorTest {
+
+    private ReviewExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    @Test
+    void rejectsWhenWorkersAndQueueAreFull() throws Exception {
+        executor = new ReviewExecutor(1, 1, false, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(1L, () -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.submit(1L, () -> { });
+        assertEquals(1, executor.getQueueDepth());
+
+        assertThrows(RejectedExecutionException.class, () -> executor.submit(1L, () -> { }));
+        assertEquals(1L, executor.stats().get("rejected"));
+        release.countDown();
+    }
+
+    @Test
+    void failingTaskDoesNotKillWorker() throws Exception {
+        executor = new ReviewExecutor(1, 10, false, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.submit(1L, () -> { throw new IllegalStateException("boom"); });
+        executor.submit(1L, done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void virtualModeRunsOnVirtualThreadsAndBoundsInFlight() throws Exception {
+        executor = new ReviewExecutor(1, 1, true, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        boolean[] virtual = new boolean[1];
+        executor.submit(1L, () -> {
+            virtual[0] = Thread.currentThread().isVirtual();
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(virtual[0]);
+        assertEquals(1, executor.getQueueDepth());
+
+        assertThrows(RejectedExecutionException.class, () -> executor.submit(1L, () -> { }));
+        release.countDown();
+    }
+
+    @Test
+    void projectsTakeTurnsAndNoisyProjectIsCapped() throws Exception {
+        executor = new ReviewExecutor(1, 10, false, 1, 1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(4);
+        executor.submit(1L, () -> await(release));
+        for (String name : List.of("a1", "a2")) {
+            executor.submit(1L, () -> { order.add(name); done.countDown(); });
+        }
+        ReviewRejectedException full = assertThrows(ReviewRejectedException.class, () -> executor.submit(1L, () -> { }));
+        assertTrue(full.getRetryAfterSeconds() >= 1);
+        assertTrue(executor.isSaturated(1L));
+        assertFalse(executor.isSaturated(2L));
+        for (String name : List.of("b1", "b2")) {
+            executor.submit(2L, () -> { order.add(name); done.countDown(); });
+        }
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("a1", "b1", "a2", "b2"), order);
+        assertEquals(1L, executor.stats().get("projectRejected"));
+    }
+
+    @Test
+    void virtualModeQueuesReviewsOfProjectAtItsCap() throws Exception {
+        // Production defaults
+        executor = new ReviewExecutor(4, 100, true, 1000, 2, 20);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.submit(1L, () -> {
+                await(release);
+                done.countDown();
+            });
+        }
+        assertFalse(executor.isSaturated(1L));
+        assertEquals(3, executor.getQueueDepth());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0L, executor.stats().get("rejected"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
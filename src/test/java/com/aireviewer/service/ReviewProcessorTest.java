@@ -1,17 +1,32 @@
 package com.aireviewer.service;
 
+import com.aireviewer.agent.CodeAgent;
+import com.aireviewer.agent.TestAgent;
+import com.aireviewer.client.CancellationToken;
 import com.aireviewer.client.GitLabClient;
 import com.aireviewer.client.JiraClient;
+import com.aireviewer.client.JiraIssueCache;
+import com.aireviewer.i18n.Messages;
 import com.aireviewer.model.AIReviewComment;
+import com.aireviewer.model.AIReviewIssue;
+import com.aireviewer.model.CompareResult;
+import com.aireviewer.model.DiffModel;
 import com.aireviewer.model.JiraContext;
+import com.aireviewer.model.MergeRequestContext;
+import com.aireviewer.model.MergeRequestEvent;
+import com.aireviewer.model.MergeRequestKey;
 import com.aireviewer.notify.Notifier;
+import com.aireviewer.rules.RuleCatalog;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -23,6 +38,7 @@ public class ReviewProcessorTest {
     private GitLabClient gitLabClient;
     private Notifier notifier;
 
+    private ReviewStateStore reviewState;
     private ReviewProcessor reviewProcessor;
 
     @BeforeEach
@@ -31,55 +47,172 @@ public class ReviewProcessorTest {
         jiraClient = mock(JiraClient.class);
         gitLabClient = mock(GitLabClient.class);
         notifier = mock(Notifier.class);
-        reviewProcessor = new ReviewProcessor(aggregatorService, jiraClient, gitLabClient, notifier);
+        when(gitLabClient.findMergeRequestNote(any(), any(), anyString())).thenReturn(null);
+        ReviewContextLoader contextLoader = new ReviewContextLoader(jiraClient, new JiraIssueCache(0, 0), gitLabClient, false, 1000, 1000);
+        reviewState = new ReviewStateStore(10);
+        reviewProcessor = new ReviewProcessor(aggregatorService, contextLoader, new ReviewNotePublisher(gitLabClient, 10), notifier, new RuleCatalog("", 0),
+                new ReviewResultCache(10, 60), reviewState);
     }
 
     @Test
     void processesOpenMergeRequestAndPostsComment() {
         // Arrange
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("object_kind", "merge_request");
-        Map<String, Object> oa = new HashMap<>();
-        oa.put("action", "open");
-        oa.put("iid", 7);
-        oa.put("title", "ABC-123 Fix bug");
-        payload.put("object_attributes", oa);
-        Map<String, Object> project = new HashMap<>();
-        project.put("id", 101);
-        payload.put("project", project);
-        Map<String, Object> user = new HashMap<>();
-        user.put("name", "Author");
-        payload.put("user", user);
-
-        when(jiraClient.fetchIssue("ABC-123")).thenReturn(new JiraContext("ABC-123", "Summary", null, null, List.of()));
-        when(gitLabClient.fetchChangedFiles(101L, 7L)).thenReturn(List.of("src/A.java", "src/B.java"));
+        MergeRequestEvent event = new MergeRequestEvent(101L, 7L, "open", "ABC-123 Fix bug", null, null, null, "Author");
+
+        when(jiraClient.searchIssues(List.of("ABC-123")))
+                .thenReturn(Map.of("ABC-123", new JiraContext("ABC-123", "Summary", null, null, List.of())));
+        when(gitLabClient.fetchDiffs(101L, 7L)).thenReturn(diffOf("src/A.java", "src/B.java"));
         AIReviewComment comment = new AIReviewComment();
         comment.setDoneWell("Good work");
         when(aggregatorService.review(any(), any())).thenReturn(comment);
 
         // Act
-        reviewProcessor.handleMergeRequestEvent(payload);
+        reviewProcessor.handleMergeRequestEvent(event);
 
         // Assert
-        verify(jiraClient).fetchIssue("ABC-123");
-        verify(gitLabClient).fetchChangedFiles(101L, 7L);
-        ArgumentCaptor<String> markdownCaptor = ArgumentCaptor.forClass(String.class);
+        verify(jiraClient).searchIssues(List.of("ABC-123"));
+        verify(gitLabClient).fetchDiffs(101L, 7L);
+        ArgumentCaptor<GitLabClient.NoteBody> markdownCaptor = ArgumentCaptor.forClass(GitLabClient.NoteBody.class);
         verify(gitLabClient).postMergeRequestComment(eq(101L), eq(7L), markdownCaptor.capture());
-        String md = markdownCaptor.getValue();
+        String md = render(markdownCaptor.getValue());
         assertNotNull(md);
         assertTrue(md.startsWith("[AI-Reviewer | Summary]"));
     }
 
+    @Test
+    void supersededReviewIsNotPublished() {
+        MergeRequestEvent event = new MergeRequestEvent(101L, 7L, "update", "Fix bug", null, null, "bbb", null);
+        ReviewCancellations cancellations = new ReviewCancellations();
+        CancellationToken token = cancellations.begin(event.key());
+        when(gitLabClient.fetchDiffs(101L, 7L)).thenReturn(diffOf("src/A.java"));
+        when(aggregatorService.review(any(), any())).thenAnswer(invocation -> {
+            // A newer push starts its review while this one is analysing
+            cancellations.begin(event.key());
+            return new AIReviewComment();
+        });
+
+        CancellationToken.callWith(token, () -> {
+            reviewProcessor.handleMergeRequestEvent(event);
+            return null;
+        });
+
+        assertTrue(token.isCancelled());
+        assertNull(reviewState.get(event.key()));
+        verify(gitLabClient, never()).postMergeRequestComment(any(), any(), any(GitLabClient.NoteBody.class));
+        verify(gitLabClient, never()).updateMergeRequestNote(any(), any(), any(), any(GitLabClient.NoteBody.class));
+        verifyNoInteractions(notifier);
+    }
+
+    @Test
+    void identicalEventReusesCachedReview() {
+        MergeRequestEvent event = new MergeRequestEvent(101L, 7L, "update", "ABC-123 Fix bug", null, null, null, null);
+
+        when(jiraClient.searchIssues(List.of("ABC-123")))
+                .thenReturn(Map.of("ABC-123", new JiraContext("ABC-123", "Summary", null, null, List.of())));
+        when(gitLabClient.fetchDiffs(101L, 7L)).thenReturn(diffOf("src/A.java"));
+        when(aggregatorService.review(any(), any())).thenReturn(new AIReviewComment());
+        when(gitLabClient.postMergeRequestComment(eq(101L), eq(7L), any(GitLabClient.NoteBody.class))).thenReturn(55L);
+
+        reviewProcessor.handleMergeRequestEvent(event);
+        reviewProcessor.handleMergeRequestEvent(event);
+
+        verify(aggregatorService, times(1)).review(any(), any());
+        // The re-rendered review is identical, so the note is left alone
+        verify(gitLabClient, times(1)).postMergeRequestComment(eq(101L), eq(7L), any(GitLabClient.NoteBody.class));
+        verify(gitLabClient, never()).updateMergeRequestNote(any(), any(), any(), any(GitLabClient.NoteBody.class));
+    }
+
+    @Test
+    void pushAfterReviewOnlyAnalysesChangedFiles() {
+        when(gitLabClient.fetchDiffs(101L, 7L)).thenReturn(diffOf("src/A.java", "src/B.java"));
+        AIReviewComment full = new AIReviewComment();
+        full.addIssue(new AIReviewIssue("issue in A", "r", "s", "src/A.java"));
+        full.addIssue(new AIReviewIssue("issue in B", "r", "s", "src/B.java"));
+        AIReviewComment delta = new AIReviewComment();
+        delta.addIssue(new AIReviewIssue("new issue in B", "r", "s", "src/B.java"));
+        when(aggregatorService.review(any(), any())).thenReturn(full, delta);
+        when(gitLabClient.fetchCompare(101L, "sha1", "sha2"))
+                .thenReturn(new CompareResult(true, List.of("src/B.java"), Set.of("src/B.java"), diffOf("src/B.java")));
+        when(gitLabClient.postMergeRequestComment(eq(101L), eq(7L), any(GitLabClient.NoteBody.class))).thenReturn(55L);
+        when(gitLabClient.updateMergeRequestNote(eq(101L), eq(7L), eq(55L), any(GitLabClient.NoteBody.class)))
+                .thenReturn(GitLabClient.NoteUpdate.UPDATED);
+
+        reviewProcessor.handleMergeRequestEvent(pushEvent("open", "sha1"));
+        reviewProcessor.handleMergeRequestEvent(pushEvent("update", "sha2"));
+
+        verify(gitLabClient, times(1)).fetchDiffs(101L, 7L);
+        ArgumentCaptor<MergeRequestContext> contexts = ArgumentCaptor.forClass(MergeRequestContext.class);
+        verify(aggregatorService, times(2)).review(contexts.capture(), any());
+        assertEquals(List.of("src/B.java"), contexts.getAllValues().get(1).getChangedFiles());
+        verify(gitLabClient, times(1)).postMergeRequestComment(eq(101L), eq(7L), any(GitLabClient.NoteBody.class));
+        // The second review replaces the first note instead of adding another one
+        ArgumentCaptor<GitLabClient.NoteBody> markdown = ArgumentCaptor.forClass(GitLabClient.NoteBody.class);
+        verify(gitLabClient).updateMergeRequestNote(eq(101L), eq(7L), eq(55L), markdown.capture());
+        String md = render(markdown.getValue());
+        assertTrue(md.contains("issue in A"));
+        assertTrue(md.contains("new issue in B"));
+        assertFalse(md.contains("1. issue in B") || md.contains("2. issue in B"));
+    }
+
+    @Test
+    void smallPushToLargeMergeRequestKeepsItsSizeFindings() {
+        StringBuilder large = new StringBuilder("@@ -0,0 +1,2000 @@\n");
+        for (int i = 0; i < 2000; i++) {
+            large.append("+line ").append(i).append('\n');
+        }
+        when(gitLabClient.fetchDiffs(101L, 7L)).thenReturn(DiffModel.ofFiles(List.of(
+                DiffModel.FileDiff.of("src/A.java", "src/A.java", large))));
+        when(aggregatorService.review(any(), any())).thenAnswer(invocation -> {
+            AIReviewComment comment = new AIReviewComment();
+            new CodeAgent().analyse(invocation.getArgument(0), null, comment);
+            new TestAgent().analyse(invocation.getArgument(0), null, comment);
+            return comment;
+        });
+        when(gitLabClient.fetchCompare(101L, "sha1", "sha2"))
+                .thenReturn(new CompareResult(true, List.of("src/A.java"), Set.of("src/A.java"), diffOf("src/A.java")));
+        when(gitLabClient.postMergeRequestComment(eq(101L), eq(7L), any(GitLabClient.NoteBody.class))).thenReturn(55L);
+        when(gitLabClient.updateMergeRequestNote(eq(101L), eq(7L), eq(55L), any(GitLabClient.NoteBody.class)))
+                .thenReturn(GitLabClient.NoteUpdate.UPDATED);
+
+        reviewProcessor.handleMergeRequestEvent(pushEvent("open", "sha1"));
+        reviewProcessor.handleMergeRequestEvent(pushEvent("update", "sha2"));
+
+        // The one-line push is judged as part of the 2000-line merge request, not on its own
+        AIReviewComment reviewed = reviewState.get(new MergeRequestKey(101L, 7L)).comment();
+        List<String> issues = reviewed.getIssues().stream().map(AIReviewIssue::getDescription).toList();
+        assertTrue(issues.contains(Messages.get("code.largeDiff.title", "300")));
+        assertFalse(issues.contains(Messages.get("code.smallDiff.title")));
+        assertEquals(List.of(Messages.get("test.advice.longDiff")), reviewed.getTestAdvice());
+    }
+
+    private static MergeRequestEvent pushEvent(String action, String headSha) {
+        return new MergeRequestEvent(101L, 7L, action, "Change", null, null, headSha, null);
+    }
+
     @Test
     void ignoresUnsupportedAction() {
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("object_kind", "merge_request");
-        Map<String, Object> oa = new HashMap<>();
-        oa.put("action", "merge"); // unsupported per task
-        payload.put("object_attributes", oa);
+        MergeRequestEvent event = new MergeRequestEvent(null, null, "merge", null, null, null, null, null); // unsupported per task
 
-        reviewProcessor.handleMergeRequestEvent(payload);
+        reviewProcessor.handleMergeRequestEvent(event);
 
         verifyNoInteractions(jiraClient, gitLabClient, aggregatorService);
     }
+
+    private static String render(GitLabClient.NoteBody body) {
+        StringBuilder out = new StringBuilder();
+        try {
+            body.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private static DiffModel diffOf(String... paths) {
+        List<DiffModel.FileDiff> files = new ArrayList<>();
+        for (String path : paths) {
+            files.add(DiffModel.FileDiff.of(path, path, "@@ -1 +1 @@\n-old\n+new"));
+        }
+        return DiffModel.ofFiles(files);
+    }
 }
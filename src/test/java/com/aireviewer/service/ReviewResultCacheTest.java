@@ -0,0 +1,76 @@
+package com.aireviewer.service;
+
+import com.aireviewer.model.AIReviewComment;
+import com.aireviewer.model.JiraContext;
+import com.aireviewer.model.MergeRequestContext;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReviewResultCacheTest {
+
+    private static final JiraContext JIRA = new JiraContext("ABC-1", "Summary", null, null, List.of("c1"));
+
+    @Test
+    void keyChangesWithDiffJiraAndAgents() {
+        ReviewResultCache cache = new ReviewResultCache(10, 60);
+        MergeRequestContext ctx = context("diff-a");
+        String key = cache.keyFor(ctx, JIRA, "agents-v1");
+
+        assertEquals(key, cache.keyFor(context("diff-a"), JIRA, "agents-v1"));
+        assertNotEquals(key, cache.keyFor(context("diff-b"), JIRA, "agents-v1"));
+        assertNotEquals(key, cache.keyFor(ctx, new JiraContext("ABC-1", "Other", null, null, List.of("c1")), "agents-v1"));
+        assertNotEquals(key, cache.keyFor(ctx, JIRA, "agents-v2"));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAndExpiredEntries() {
+        MutableClock clock = new MutableClock();
+        ReviewResultCache cache = new ReviewResultCache(2, 60, clock);
+        AIReviewComment a = new AIReviewComment();
+        cache.put("a", a);
+        cache.put("b", new AIReviewComment());
+        assertSame(a, cache.get("a"));
+        cache.put("c", new AIReviewComment());
+
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        clock.advance(Duration.ofSeconds(61));
+        assertNull(cache.get("c"));
+        assertEquals(2L, cache.stats().get("hits"));
+    }
+
+    private static MergeRequestContext context(String diff) {
+        return new MergeRequestContext(1L, 2L, "author", "title", "desc", List.of("src/A.java"), diff);
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now = Instant.parse("2026-01-01T00:00:00Z");
+
+        void advance(Duration d) {
+            now = now.plus(d);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}